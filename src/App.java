@@ -5,8 +5,17 @@ import java.util.Scanner;
  */
 public class App {
     public static void main(String[] args) {
-	IterableSortedCollection<SongInterface> tree = new IterableRedBlackTree<>(); 
-	BackendInterface backend = new Backend(tree);
+	// -Dsongify.tree=array, bplus or bucketed keeps the songs in an ArrayRedBlackTree, a BPlusTree or a
+	// BucketedTree with one bucket per liveness value instead
+	IterableSortedCollection<SongInterface> tree = switch (System.getProperty("songify.tree", "")) {
+		case "array" -> new ArrayRedBlackTree<>();
+		case "bplus" -> new BPlusTree<>();
+		case "bucketed" -> new BucketedTree<>(SongInterface::getLiveness);
+		default -> new IterableRedBlackTree<>();
+	};
+	Backend backend = new Backend(tree);
+	// restarts restore the balanced tree from songs.csv.snapshot instead of parsing songs.csv
+	backend.setSnapshots(true);
 	Scanner in = new Scanner(System.in);
 	FrontendInterface frontend = new Frontend(in,backend);
 
@@ -0,0 +1,935 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A red-black tree that keeps its nodes in parallel arrays instead of objects. A node is an int slot: its value is
+ * in keys, its children in left and right, and its parent and color share one int in parentAndColor. Slot 0 is the
+ * black NIL leaf, so no child or parent reference is ever null. Compared to IterableRedBlackTree, which allocates a
+ * node and a child array per value, this allocates nothing per insert once the arrays are large enough, and the
+ * garbage collector only ever sees six arrays. Slots of removed values are kept on a free list and reused.
+ *
+ * Like IterableRedBlackTree, the tree holds duplicates, and every node knows the size of its subtree so that rank,
+ * select and range counts take O(log n) time.
+ */
+public class ArrayRedBlackTree<T extends Comparable<T>> implements IterableSortedCollection<T> {
+    private static final int NIL = 0;
+    // the lowest bit of parentAndColor is set for red nodes; the rest is the parent's slot
+    private static final int RED = 1;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private Object[] keys;
+    private int[] left;
+    private int[] right;
+    private int[] parentAndColor;
+    private int[] sizes;
+    private int root = NIL;
+    private int size = 0;
+    // slots below this have been handed out at some point; slot 0 is NIL
+    private int used = 1;
+    // the first slot of the free list, which is chained through right
+    private int free = NIL;
+    // null to iterate from the smallest value
+    private Comparable<T> startPoint = null;
+
+    public ArrayRedBlackTree() {
+        allocateArrays(INITIAL_CAPACITY);
+    }
+
+    private void allocateArrays(int capacity) {
+        keys = new Object[capacity];
+        left = new int[capacity];
+        right = new int[capacity];
+        parentAndColor = new int[capacity];
+        sizes = new int[capacity];
+    }
+
+    private void grow(int capacity) {
+        keys = Arrays.copyOf(keys, capacity);
+        left = Arrays.copyOf(left, capacity);
+        right = Arrays.copyOf(right, capacity);
+        parentAndColor = Arrays.copyOf(parentAndColor, capacity);
+        sizes = Arrays.copyOf(sizes, capacity);
+    }
+
+    /**
+     * @return a red slot holding data with no parent or children, reused from the free list if possible
+     */
+    private int allocate(T data) {
+        int node;
+        if (free != NIL) {
+            node = free;
+            free = right[node];
+        } else {
+            if (used == keys.length)
+                grow(keys.length * 2);
+            node = used++;
+        }
+        keys[node] = data;
+        left[node] = NIL;
+        right[node] = NIL;
+        parentAndColor[node] = RED;
+        sizes[node] = 1;
+        return node;
+    }
+
+    private void release(int node) {
+        keys[node] = null;
+        left[node] = NIL;
+        parentAndColor[node] = 0;
+        sizes[node] = 0;
+        right[node] = free;
+        free = node;
+    }
+
+    @SuppressWarnings("unchecked")
+    private T key(int node) {
+        return (T) keys[node];
+    }
+
+    private int parent(int node) {
+        return parentAndColor[node] >>> 1;
+    }
+
+    private void setParent(int node, int parent) {
+        parentAndColor[node] = parent << 1 | (parentAndColor[node] & RED);
+    }
+
+    private boolean isRed(int node) {
+        return (parentAndColor[node] & RED) != 0;
+    }
+
+    private void setRed(int node, boolean red) {
+        if (red)
+            parentAndColor[node] |= RED;
+        else
+            parentAndColor[node] &= ~RED;
+    }
+
+    /**
+     * Inserts a value into the tree. Values that compare equal to ones in the tree are inserted after them.
+     *
+     * @param data the value to insert
+     * @return true
+     * @throws NullPointerException if data is null
+     */
+    public boolean insert(T data) throws NullPointerException {
+        if (data == null)
+            throw new NullPointerException("Cannot insert data value null into the tree.");
+        int node = allocate(data);
+
+        int parent = NIL;
+        int current = root;
+        boolean isLeft = false;
+        while (current != NIL) {
+            parent = current;
+            sizes[current]++;
+            isLeft = data.compareTo(key(current)) < 0;
+            current = isLeft ? left[current] : right[current];
+        }
+        setParent(node, parent);
+        if (parent == NIL)
+            root = node;
+        else if (isLeft)
+            left[parent] = node;
+        else
+            right[parent] = node;
+        size++;
+        Metrics.TREE_INSERTS.increment();
+
+        enforceRBTreePropertiesAfterInsert(node);
+        return true;
+    }
+
+    /**
+     * Recolors and rotates until the red node has no red parent
+     *
+     * @param node the red node that was just inserted
+     */
+    private void enforceRBTreePropertiesAfterInsert(int node) {
+        // NIL is black, so a red parent is never the root and always has a parent itself
+        while (isRed(parent(node))) {
+            int parent = parent(node);
+            int grandparent = parent(parent);
+            if (parent == left[grandparent]) {
+                int aunt = right[grandparent];
+                if (isRed(aunt)) {
+                    // Recolors and checks up
+                    setRed(parent, false);
+                    setRed(aunt, false);
+                    setRed(grandparent, true);
+                    node = grandparent;
+                } else {
+                    if (node == right[parent]) {
+                        node = parent;
+                        rotateLeft(node);
+                        parent = parent(node);
+                    }
+                    setRed(parent, false);
+                    setRed(grandparent, true);
+                    rotateRight(grandparent);
+                }
+            } else {
+                int aunt = left[grandparent];
+                if (isRed(aunt)) {
+                    setRed(parent, false);
+                    setRed(aunt, false);
+                    setRed(grandparent, true);
+                    node = grandparent;
+                } else {
+                    if (node == left[parent]) {
+                        node = parent;
+                        rotateRight(node);
+                        parent = parent(node);
+                    }
+                    setRed(parent, false);
+                    setRed(grandparent, true);
+                    rotateLeft(grandparent);
+                }
+            }
+        }
+        setRed(root, false);
+    }
+
+    /**
+     * Rotates the right child of node up into its place
+     */
+    private void rotateLeft(int node) {
+        int child = right[node];
+        right[node] = left[child];
+        if (left[child] != NIL)
+            setParent(left[child], node);
+        replaceChild(parent(node), node, child);
+        left[child] = node;
+        setParent(node, child);
+        sizes[child] = sizes[node];
+        sizes[node] = sizes[left[node]] + sizes[right[node]] + 1;
+        Metrics.TREE_ROTATIONS.increment();
+    }
+
+    /**
+     * Rotates the left child of node up into its place
+     */
+    private void rotateRight(int node) {
+        int child = left[node];
+        left[node] = right[child];
+        if (right[child] != NIL)
+            setParent(right[child], node);
+        replaceChild(parent(node), node, child);
+        right[child] = node;
+        setParent(node, child);
+        sizes[child] = sizes[node];
+        sizes[node] = sizes[left[node]] + sizes[right[node]] + 1;
+        Metrics.TREE_ROTATIONS.increment();
+    }
+
+    /**
+     * Puts replacement where child was under parent (or at the root), and makes parent its parent
+     */
+    private void replaceChild(int parent, int child, int replacement) {
+        setParent(replacement, parent);
+        if (parent == NIL)
+            root = replacement;
+        else if (left[parent] == child)
+            left[parent] = replacement;
+        else
+            right[parent] = replacement;
+    }
+
+    /**
+     * Removes a value from the tree. When several values compare equal to data, the one that equals() data is
+     * removed, and otherwise the first of them in order.
+     *
+     * @param data the value to remove
+     * @return true if a value was removed, false if no value compares equal to data
+     * @throws NullPointerException if data is null
+     */
+    public boolean remove(T data) throws NullPointerException {
+        if (data == null)
+            throw new NullPointerException("This tree cannot store null references.");
+        int node = findNodeToRemove(data);
+        if (node == NIL)
+            return false;
+        removeNode(node);
+        return true;
+    }
+
+    public T pollFirst() {
+        if (root == NIL)
+            return null;
+        int first = root;
+        while (left[first] != NIL)
+            first = left[first];
+        T data = key(first);
+        removeNode(first);
+        return data;
+    }
+
+    public T pollLast() {
+        if (root == NIL)
+            return null;
+        int last = root;
+        while (right[last] != NIL)
+            last = right[last];
+        T data = key(last);
+        removeNode(last);
+        return data;
+    }
+
+    /**
+     * Replaces a value in the tree with another one. When the new value sorts between the neighbors of the old one,
+     * it is simply stored in the old value's slot; otherwise the old value is removed and the new one inserted.
+     *
+     * @param oldData the value to replace
+     * @param newData the value to store instead
+     * @return true if the value was replaced, false if oldData is not in the tree
+     * @throws NullPointerException when either argument is null
+     */
+    public boolean replace(T oldData, T newData) throws NullPointerException {
+        if (oldData == null || newData == null)
+            throw new NullPointerException("This tree cannot store null references.");
+        int node = findNodeToRemove(oldData);
+        if (node == NIL)
+            return false;
+
+        int predecessor = predecessor(node);
+        int successor = successor(node);
+        if ((predecessor == NIL || key(predecessor).compareTo(newData) < 0)
+                && (successor == NIL || key(successor).compareTo(newData) > 0)) {
+            keys[node] = newData;
+            return true;
+        }
+        removeNode(node);
+        return insert(newData);
+    }
+
+    /**
+     * @return the slot that remove(data) should remove, or NIL if no value compares equal to data
+     */
+    private int findNodeToRemove(T data) {
+        int first = lowerBound(data);
+        if (first == NIL || data.compareTo(key(first)) != 0)
+            return NIL;
+
+        int node = first;
+        while (node != NIL && data.compareTo(key(node)) == 0 && !data.equals(key(node)))
+            node = successor(node);
+        if (node == NIL || data.compareTo(key(node)) != 0)
+            return first;
+        return node;
+    }
+
+    /**
+     * Unlinks the value in node from the tree. When node has two children, its value is replaced by the value of
+     * its in-order successor, and the successor's slot is unlinked and freed instead.
+     */
+    private void removeNode(int node) {
+        if (left[node] != NIL && right[node] != NIL) {
+            int successor = right[node];
+            while (left[successor] != NIL)
+                successor = left[successor];
+            keys[node] = keys[successor];
+            node = successor;
+        }
+
+        int child = left[node] != NIL ? left[node] : right[node];
+        int parent = parent(node);
+        // this also points NIL's parent at parent, so the repair can walk up from an empty position
+        replaceChild(parent, node, child);
+        for (int ancestor = parent; ancestor != NIL; ancestor = parent(ancestor))
+            sizes[ancestor]--;
+        size--;
+        Metrics.TREE_REMOVES.increment();
+
+        if (!isRed(node))
+            enforceRBTreePropertiesAfterRemove(child);
+        setParent(NIL, NIL);
+        release(node);
+    }
+
+    /**
+     * Makes up for the black node missing from every path through node after a black node was removed
+     *
+     * @param node the slot that took the removed node's place, which may be NIL with its parent set
+     */
+    private void enforceRBTreePropertiesAfterRemove(int node) {
+        while (node != root && !isRed(node)) {
+            int parent = parent(node);
+            if (node == left[parent]) {
+                int sibling = right[parent];
+                // A red sibling is rotated up so that node gets a black sibling
+                if (isRed(sibling)) {
+                    setRed(sibling, false);
+                    setRed(parent, true);
+                    rotateLeft(parent);
+                    sibling = right[parent];
+                }
+                if (!isRed(left[sibling]) && !isRed(right[sibling])) {
+                    // Recolors the sibling so both sides are short, and checks up
+                    setRed(sibling, true);
+                    node = parent;
+                } else {
+                    // Rotates a red nephew to the far side, then rotates the sibling up over the parent
+                    if (!isRed(right[sibling])) {
+                        setRed(left[sibling], false);
+                        setRed(sibling, true);
+                        rotateRight(sibling);
+                        sibling = right[parent];
+                    }
+                    setRed(sibling, isRed(parent));
+                    setRed(parent, false);
+                    setRed(right[sibling], false);
+                    rotateLeft(parent);
+                    node = root;
+                }
+            } else {
+                int sibling = left[parent];
+                if (isRed(sibling)) {
+                    setRed(sibling, false);
+                    setRed(parent, true);
+                    rotateRight(parent);
+                    sibling = left[parent];
+                }
+                if (!isRed(left[sibling]) && !isRed(right[sibling])) {
+                    setRed(sibling, true);
+                    node = parent;
+                } else {
+                    if (!isRed(left[sibling])) {
+                        setRed(right[sibling], false);
+                        setRed(sibling, true);
+                        rotateLeft(sibling);
+                        sibling = left[parent];
+                    }
+                    setRed(sibling, isRed(parent));
+                    setRed(parent, false);
+                    setRed(left[sibling], false);
+                    rotateRight(parent);
+                    node = root;
+                }
+            }
+        }
+        setRed(node, false);
+    }
+
+    /**
+     * @return the slot of the smallest value that is at least from, or NIL if there is none
+     */
+    private int lowerBound(Comparable<T> from) {
+        int bound = NIL;
+        int current = root;
+        while (current != NIL) {
+            if (from.compareTo(key(current)) <= 0) {
+                bound = current;
+                current = left[current];
+            } else {
+                current = right[current];
+            }
+        }
+        return bound;
+    }
+
+    private int predecessor(int node) {
+        if (left[node] != NIL) {
+            node = left[node];
+            while (right[node] != NIL)
+                node = right[node];
+            return node;
+        }
+        int parent = parent(node);
+        while (parent != NIL && left[parent] == node) {
+            node = parent;
+            parent = parent(node);
+        }
+        return parent;
+    }
+
+    private int successor(int node) {
+        if (right[node] != NIL) {
+            node = right[node];
+            while (left[node] != NIL)
+                node = left[node];
+            return node;
+        }
+        int parent = parent(node);
+        while (parent != NIL && right[parent] == node) {
+            node = parent;
+            parent = parent(node);
+        }
+        return parent;
+    }
+
+    public boolean contains(Comparable<T> data) {
+        if (data == null)
+            return false;
+        int current = root;
+        while (current != NIL) {
+            int compare = data.compareTo(key(current));
+            if (compare == 0)
+                return true;
+            current = compare < 0 ? left[current] : right[current];
+        }
+        return false;
+    }
+
+    public int rank(Comparable<T> data) {
+        if (data == null)
+            throw new NullPointerException("This tree cannot store null references.");
+        return countBelow(data, false);
+    }
+
+    public T select(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " is not in a tree of size " + size);
+        return key(nodeAt(index));
+    }
+
+    /**
+     * @param index the position, which must be at least 0 and less than size()
+     * @return the slot at that position in the in-order sequence
+     */
+    private int nodeAt(int index) {
+        int current = root;
+        while (true) {
+            int smaller = sizes[left[current]];
+            if (index < smaller) {
+                current = left[current];
+            } else if (index == smaller) {
+                return current;
+            } else {
+                index -= smaller + 1;
+                current = right[current];
+            }
+        }
+    }
+
+    public int countInRange(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        int start = from == null ? 0 : countBelow(from, false);
+        int end = to == null ? size : countBelow(to, toInclusive);
+        return Math.max(0, end - start);
+    }
+
+    /**
+     * @param inclusive true to also count values equal to data
+     * @return the number of values that are smaller than (or equal to) data
+     */
+    private int countBelow(Comparable<T> data, boolean inclusive) {
+        int count = 0;
+        int current = root;
+        while (current != NIL) {
+            int compare = data.compareTo(key(current));
+            if (compare > 0 || (inclusive && compare == 0)) {
+                count += sizes[left[current]] + 1;
+                current = right[current];
+            } else {
+                current = left[current];
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes every value and shrinks the arrays back to their initial capacity
+     */
+    public void clear() {
+        allocateArrays(INITIAL_CAPACITY);
+        root = NIL;
+        size = 0;
+        used = 1;
+        free = NIL;
+    }
+
+    /**
+     * Adds all of values to the tree. When the tree is empty the values are sorted once (in parallel) and the
+     * tree is built from the sorted array with fromSorted(), otherwise each value is inserted normally.
+     *
+     * @param values the values to add
+     * @throws NullPointerException if values contains null
+     */
+    @Override
+    public void bulkLoad(Collection<T> values) {
+        if (!isEmpty()) {
+            for (T value : values)
+                insert(value);
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        T[] sorted = (T[]) values.toArray(new Comparable<?>[0]);
+        for (T value : sorted)
+            if (value == null)
+                throw new NullPointerException("Cannot insert data value null into the tree.");
+        // parallelSort is stable, so equal values keep their order
+        Arrays.parallelSort(sorted, Comparator.naturalOrder());
+        fromSorted(sorted);
+    }
+
+    /**
+     * Replaces the contents of this tree with the values of sorted in linear time, colored the same way as
+     * IterableRedBlackTree.fromSorted(). The value at position i goes into slot i + 1, so the arrays hold the
+     * values in order and an in-order walk reads them from memory front to back.
+     *
+     * @param sorted the values of the new tree in ascending order
+     * @throws IllegalArgumentException if sorted is not in ascending order
+     * @throws NullPointerException if sorted contains null
+     */
+    public void fromSorted(T[] sorted) {
+        for (int i = 1; i < sorted.length; i++)
+            if (sorted[i].compareTo(sorted[i - 1]) < 0)
+                throw new IllegalArgumentException("Values must be in ascending order");
+
+        allocateArrays(Math.max(INITIAL_CAPACITY, sorted.length + 1));
+        System.arraycopy(sorted, 0, keys, 1, sorted.length);
+        used = sorted.length + 1;
+        free = NIL;
+        // depth of the deepest level that holds nodes but is not completely full
+        int redDepth = 31 - Integer.numberOfLeadingZeros(sorted.length + 1);
+        root = buildBalanced(0, sorted.length, 0, redDepth);
+        setRed(root, false);
+        size = sorted.length;
+    }
+
+    /**
+     * Links up the slots of the values at positions from to to - 1
+     *
+     * @return the slot of the subtree's root, or NIL if the range is empty
+     */
+    private int buildBalanced(int from, int to, int depth, int redDepth) {
+        if (from >= to)
+            return NIL;
+
+        int middle = (from + to) >>> 1;
+        int node = middle + 1;
+        left[node] = buildBalanced(from, middle, depth + 1, redDepth);
+        if (left[node] != NIL)
+            setParent(left[node], node);
+        right[node] = buildBalanced(middle + 1, to, depth + 1, redDepth);
+        if (right[node] != NIL)
+            setParent(right[node], node);
+        setRed(node, depth == redDepth);
+        sizes[node] = to - from;
+        return node;
+    }
+
+    public void setIterationStartPoint(Comparable<T> startPoint) {
+        this.startPoint = startPoint;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return rangeIterator(startPoint, null, false);
+    }
+
+    @Override
+    public Iterator<T> rangeIterator(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        return new ArrayIterator(from == null ? firstNode() : lowerBound(from), to, toInclusive);
+    }
+
+    private int firstNode() {
+        int first = root;
+        while (left[first] != NIL)
+            first = left[first];
+        return first;
+    }
+
+    /**
+     * @return a spliterator over every value in the tree, in ascending order
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new ArraySpliterator(0, size);
+    }
+
+    /**
+     * Returns a spliterator over the values that rangeIterator(from, to, toInclusive) would return, which knows
+     * its exact size and splits into halves of exactly known size
+     */
+    public Spliterator<T> rangeSpliterator(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        int start = from == null ? 0 : rank(from);
+        return new ArraySpliterator(start, start + countInRange(from, to, toInclusive));
+    }
+
+    /**
+     * @return a sequential stream of every value in the tree, in ascending order, which can be made parallel()
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    @Override
+    public Stream<T> rangeStream(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        return StreamSupport.stream(rangeSpliterator(from, to, toInclusive), false);
+    }
+
+    /**
+     * Steps through slots in order through the child and parent indices, starting from a slot found with one
+     * descent. The tree must not be changed while an iterator over it is in use.
+     */
+    private class ArrayIterator implements Iterator<T> {
+        private final Comparable<T> to;
+        private final boolean toInclusive;
+        private int next;
+
+        ArrayIterator(int first, Comparable<T> to, boolean toInclusive) {
+            this.to = to;
+            this.toInclusive = toInclusive;
+            this.next = withinBound(first);
+            Metrics.ITERATORS.increment();
+        }
+
+        /**
+         * @return node if it is not past the upper bound of the range, otherwise NIL
+         */
+        private int withinBound(int node) {
+            if (node == NIL || to == null)
+                return node;
+            int compare = to.compareTo(key(node));
+            return compare > 0 || (toInclusive && compare == 0) ? node : NIL;
+        }
+
+        public boolean hasNext() {
+            return next != NIL;
+        }
+
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException("No next value exists");
+            T data = key(next);
+            next = withinBound(successor(next));
+            Metrics.ITERATOR_NODES.increment();
+            return data;
+        }
+    }
+
+    /**
+     * Walks the values at a range of in-order positions, splitting in O(log n) with the subtree sizes like the
+     * spliterator of IterableRedBlackTree. The tree must not be changed while a spliterator over it is in use.
+     */
+    private class ArraySpliterator implements Spliterator<T> {
+        // splitting off fewer values than this costs more than it saves
+        private static final int MIN_SPLIT = 64;
+
+        private int index;
+        private final int end;
+        // the slot at index, or NIL until it is first needed
+        private int next = NIL;
+
+        ArraySpliterator(int index, int end) {
+            this.index = index;
+            this.end = end;
+        }
+
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (index >= end)
+                return false;
+            if (next == NIL)
+                next = nodeAt(index);
+            action.accept(key(next));
+            next = successor(next);
+            index++;
+            return true;
+        }
+
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (index >= end)
+                return;
+            int node = next != NIL ? next : nodeAt(index);
+            for (; index < end; index++) {
+                action.accept(key(node));
+                node = successor(node);
+            }
+            next = NIL;
+        }
+
+        public Spliterator<T> trySplit() {
+            int remaining = end - index;
+            if (remaining < 2 * MIN_SPLIT)
+                return null;
+            int middle = index + remaining / 2;
+            ArraySpliterator prefix = new ArraySpliterator(index, middle);
+            prefix.next = next;
+            index = middle;
+            next = NIL;
+            return prefix;
+        }
+
+        public long estimateSize() {
+            return end - index;
+        }
+
+        public int characteristics() {
+            return ORDERED | SORTED | SIZED | SUBSIZED | NONNULL;
+        }
+
+        // values are in their natural order
+        public Comparator<? super T> getComparator() {
+            return null;
+        }
+    }
+
+    /**
+     * Checks the red-black, binary search tree, parent and subtree size properties of the subtree rooted at node
+     *
+     * @return the number of black nodes on every path from node down to NIL, or -1 if a property is broken
+     */
+    private int blackHeight(int node) {
+        if (node == NIL)
+            return 0;
+        int leftHeight = blackHeight(left[node]);
+        int rightHeight = blackHeight(right[node]);
+        if (leftHeight == -1 || leftHeight != rightHeight)
+            return -1;
+        if (isRed(node) && (isRed(left[node]) || isRed(right[node])))
+            return -1;
+        if ((left[node] != NIL && (parent(left[node]) != node || key(left[node]).compareTo(key(node)) > 0))
+                || (right[node] != NIL && (parent(right[node]) != node || key(right[node]).compareTo(key(node)) < 0)))
+            return -1;
+        if (sizes[node] != sizes[left[node]] + sizes[right[node]] + 1)
+            return -1;
+        return leftHeight + (isRed(node) ? 0 : 1);
+    }
+
+    /**
+     * @return true if the whole tree is a valid red-black tree with a black root and NIL unchanged
+     */
+    private boolean isValid() {
+        return blackHeight(root) != -1 && !isRed(root) && sizes[root] == size && parent(root) == NIL
+                && parentAndColor[NIL] == 0 && sizes[NIL] == 0 && left[NIL] == NIL && right[NIL] == NIL;
+    }
+
+    /**
+     * Tests random inserts, removes and polls against a sorted list, checking the tree after every operation and
+     * that removed slots are reused instead of growing the arrays
+     */
+    @Test
+    public void testRandomOperations() {
+        java.util.Random random = new java.util.Random(23);
+        java.util.List<Integer> expected = new java.util.ArrayList<>();
+        ArrayRedBlackTree<Integer> testTree = new ArrayRedBlackTree<>();
+        for (int i = 0; i < 3000; i++) {
+            int value = random.nextInt(200);
+            switch (random.nextInt(6)) {
+                case 0, 1 -> Assertions.assertEquals(expected.remove((Integer) value), testTree.remove(value));
+                case 2 -> Assertions.assertEquals(expected.isEmpty() ? null : expected.remove(0),
+                        testTree.pollFirst());
+                default -> {
+                    testTree.insert(value);
+                    expected.add(value);
+                    java.util.Collections.sort(expected);
+                }
+            }
+            Assertions.assertTrue(testTree.isValid());
+            Assertions.assertEquals(expected.size(), testTree.size());
+        }
+        java.util.List<Integer> values = new java.util.ArrayList<>();
+        testTree.forEach(values::add);
+        Assertions.assertEquals(expected, values);
+
+        // removing and inserting the same number of values takes slots from the free list
+        int capacity = testTree.keys.length;
+        for (int i = 0; i < 100; i++)
+            testTree.pollLast();
+        for (int i = 0; i < 100; i++)
+            testTree.insert(i);
+        Assertions.assertEquals(capacity, testTree.keys.length);
+        Assertions.assertTrue(testTree.isValid());
+
+        Assertions.assertTrue(testTree.replace(testTree.select(0), -1));
+        Assertions.assertTrue(testTree.replace(-1, 1000));
+        Assertions.assertEquals(1000, (int) testTree.select(testTree.size() - 1));
+        Assertions.assertFalse(testTree.replace(-1, 5));
+        Assertions.assertTrue(testTree.isValid());
+
+        testTree.clear();
+        Assertions.assertNull(testTree.pollFirst());
+        Assertions.assertFalse(testTree.iterator().hasNext());
+        Assertions.assertThrows(NullPointerException.class, () -> testTree.insert(null));
+    }
+
+    /**
+     * Tests that removing one of several equal values removes the one that equals() it
+     */
+    @Test
+    public void testRemoveDuplicates() {
+        record Pair(int key, int id) implements Comparable<Pair> {
+            public int compareTo(Pair other) {
+                return Integer.compare(key, other.key);
+            }
+        }
+        ArrayRedBlackTree<Pair> pairs = new ArrayRedBlackTree<>();
+        for (int i = 0; i < 30; i++)
+            pairs.insert(new Pair(i % 3, i));
+        Assertions.assertTrue(pairs.remove(new Pair(2, 17)));
+        Assertions.assertFalse(pairs.remove(new Pair(3, 17)));
+        for (Pair each : pairs)
+            Assertions.assertTrue(each.id() != 17);
+        Assertions.assertTrue(pairs.isValid());
+        Assertions.assertEquals(29, pairs.size());
+        Assertions.assertEquals(10, pairs.countInRange(new Pair(1, 0), new Pair(1, 0), true));
+    }
+
+    /**
+     * Tests bulk loading, range iteration, the start point, order statistics and streams against the same values
+     * in an IterableRedBlackTree
+     */
+    @Test
+    public void testMatchesIterableRedBlackTree() {
+        for (int n = 0; n <= 200; n++) {
+            java.util.List<Integer> values = new java.util.ArrayList<>();
+            for (int i = n - 1; i >= 0; i--)
+                values.add(i / 2);
+            ArrayRedBlackTree<Integer> testTree = new ArrayRedBlackTree<>();
+            testTree.bulkLoad(values);
+            Assertions.assertTrue(testTree.isValid());
+            Assertions.assertEquals(n, testTree.size());
+        }
+
+        java.util.Random random = new java.util.Random(29);
+        java.util.List<Integer> values = new java.util.ArrayList<>();
+        for (int i = 0; i < 5000; i++)
+            values.add(random.nextInt(1000));
+        ArrayRedBlackTree<Integer> testTree = new ArrayRedBlackTree<>();
+        IterableRedBlackTree<Integer> reference = new IterableRedBlackTree<>();
+        testTree.bulkLoad(values.subList(0, 2500));
+        reference.bulkLoad(values.subList(0, 2500));
+        testTree.bulkLoad(values.subList(2500, 5000));
+        reference.bulkLoad(values.subList(2500, 5000));
+        Assertions.assertTrue(testTree.isValid());
+
+        for (int from = -10; from <= 1010; from += 17) {
+            int to = from + random.nextInt(100);
+            java.util.List<Integer> expected = new java.util.ArrayList<>();
+            reference.rangeIterator(from, to, true).forEachRemaining(expected::add);
+            java.util.List<Integer> actual = new java.util.ArrayList<>();
+            testTree.rangeIterator(from, to, true).forEachRemaining(actual::add);
+            Assertions.assertEquals(expected, actual);
+            Assertions.assertEquals(reference.rank(from), testTree.rank(from));
+            Assertions.assertEquals(reference.countInRange(from, to, false), testTree.countInRange(from, to, false));
+            Assertions.assertEquals(expected, testTree.rangeStream(from, to, true).parallel()
+                    .collect(java.util.stream.Collectors.toList()));
+        }
+        Assertions.assertEquals(reference.stream().collect(java.util.stream.Collectors.toList()),
+                testTree.stream().parallel().collect(java.util.stream.Collectors.toList()));
+
+        testTree.setIterationStartPoint(500);
+        Assertions.assertEquals(reference.select(reference.rank(500)), testTree.iterator().next());
+        testTree.setIterationStartPoint(null);
+        Assertions.assertEquals(reference.select(0), testTree.iterator().next());
+    }
+}
@@ -0,0 +1,54 @@
+/**
+ * An inclusive range of values for one song attribute, e.g. year between 2015 and 2019. Ranges
+ * are immutable; use Integer.MIN_VALUE or Integer.MAX_VALUE for an open end.
+ */
+public class AttributeRange {
+  private final SongAttribute attribute;
+  private final int min;
+  private final int max;
+
+  /**
+   * @param attribute the attribute to test
+   * @param min the smallest accepted value
+   * @param max the largest accepted value. A range with max < min accepts nothing
+   */
+  public AttributeRange(SongAttribute attribute, int min, int max) {
+    if (attribute == null)
+      throw new NullPointerException("attribute cannot be null");
+    this.attribute = attribute;
+    this.min = min;
+    this.max = max;
+  }
+
+  public SongAttribute getAttribute() {
+    return attribute;
+  }
+
+  public int getMin() {
+    return min;
+  }
+
+  public int getMax() {
+    return max;
+  }
+
+  /**
+   * @return true when no value can be in this range
+   */
+  public boolean isEmpty() {
+    return max < min;
+  }
+
+  /**
+   * @param song the song to test
+   * @return true if the song's value for this attribute is within the range
+   */
+  public boolean matches(SongInterface song) {
+    int value = attribute.of(song);
+    return value >= min && value <= max;
+  }
+
+  public String toString() {
+    return attribute.getColumn() + " in [" + min + ", " + max + "]";
+  }
+}
@@ -0,0 +1,967 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A B+-tree that keeps every value in its leaves, up to fanout values per leaf, with the leaves linked in order.
+ * Inner nodes hold up to fanout children, the smallest value of every child but the first as separators, and the
+ * number of values under each child so that rank, select and range counts take O(log n) time. A range scan
+ * descends once and then walks the leaves' arrays, instead of stepping from node to node.
+ *
+ * Like IterableRedBlackTree, the tree holds duplicates, which may span several leaves, and removes the value that
+ * equals() the one given when several compare equal. Deletion is relaxed: nodes are never merged or rebalanced,
+ * only dropped when they become empty, so the tree stays as high as its largest size required. This keeps
+ * removals cheap and is what most database B+-trees do, since inserts usually refill the space.
+ */
+public class BPlusTree<T extends Comparable<T>> implements IterableSortedCollection<T> {
+    public static final int DEFAULT_FANOUT = 64;
+
+    private abstract static class Node {
+        Inner parent;
+        // the number of keys in a leaf, or of children in an inner node
+        int count;
+    }
+
+    private static final class Leaf extends Node {
+        final Object[] keys;
+        Leaf previous;
+        Leaf next;
+
+        Leaf(int fanout) {
+            keys = new Object[fanout];
+        }
+    }
+
+    private static final class Inner extends Node {
+        final Node[] children;
+        // separators[i - 1] is the smallest value under children[i]
+        final Object[] separators;
+        // the number of values under each child
+        final int[] sizes;
+
+        Inner(int fanout) {
+            children = new Node[fanout];
+            separators = new Object[fanout - 1];
+            sizes = new int[fanout];
+        }
+
+        int indexOf(Node child) {
+            for (int i = 0; i < count; i++)
+                if (children[i] == child)
+                    return i;
+            throw new IllegalStateException("Node is not a child of its parent");
+        }
+    }
+
+    private final int fanout;
+    private Node root;
+    private Leaf head;
+    private Leaf tail;
+    private int size = 0;
+    // null to iterate from the smallest value
+    private Comparable<T> startPoint = null;
+
+    public BPlusTree() {
+        this(DEFAULT_FANOUT);
+    }
+
+    /**
+     * @param fanout the most values a leaf holds and the most children an inner node has
+     * @throws IllegalArgumentException if fanout is less than 3
+     */
+    public BPlusTree(int fanout) {
+        if (fanout < 3)
+            throw new IllegalArgumentException("fanout must be at least 3");
+        this.fanout = fanout;
+        clear();
+    }
+
+    public int getFanout() {
+        return fanout;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T key(Object[] keys, int index) {
+        return (T) keys[index];
+    }
+
+    /**
+     * @param inclusive true to also count separators equal to data
+     * @return the number of separators of node that are smaller than (or equal to) data, which is the index of the
+     *     child to descend into
+     */
+    private int childIndex(Inner node, Comparable<T> data, boolean inclusive) {
+        int low = 0;
+        int high = node.count - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int compare = data.compareTo(key(node.separators, middle));
+            if (compare > 0 || (inclusive && compare == 0))
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * @param inclusive true to also count values equal to data
+     * @return the number of values of leaf that are smaller than (or equal to) data
+     */
+    private int keyIndex(Leaf leaf, Comparable<T> data, boolean inclusive) {
+        int low = 0;
+        int high = leaf.count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int compare = data.compareTo(key(leaf.keys, middle));
+            if (compare > 0 || (inclusive && compare == 0))
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Inserts a value into the tree. Values that compare equal to ones in the tree are inserted after them.
+     *
+     * @param data the value to insert
+     * @return true
+     * @throws NullPointerException if data is null
+     */
+    public boolean insert(T data) throws NullPointerException {
+        if (data == null)
+            throw new NullPointerException("Cannot insert data value null into the tree.");
+        Node node = root;
+        while (node instanceof Inner inner) {
+            int index = childIndex(inner, data, true);
+            inner.sizes[index]++;
+            node = inner.children[index];
+        }
+        Leaf leaf = (Leaf) node;
+        int index = keyIndex(leaf, data, true);
+        if (leaf.count == fanout) {
+            Leaf right = splitLeaf(leaf);
+            if (index > leaf.count) {
+                index -= leaf.count;
+                leaf = right;
+                // the parent counted the new value for the left half while descending
+                Inner parent = right.parent;
+                int child = parent.indexOf(right);
+                parent.sizes[child]++;
+                parent.sizes[child - 1]--;
+            }
+        }
+        System.arraycopy(leaf.keys, index, leaf.keys, index + 1, leaf.count - index);
+        leaf.keys[index] = data;
+        leaf.count++;
+        size++;
+        Metrics.TREE_INSERTS.increment();
+        return true;
+    }
+
+    /**
+     * Moves the upper half of a full leaf into a new leaf to its right. The parent's size for leaf may already
+     * count one value that is about to be inserted into either half.
+     *
+     * @return the new leaf
+     */
+    private Leaf splitLeaf(Leaf leaf) {
+        Leaf right = new Leaf(fanout);
+        int keep = (fanout + 1) / 2;
+        right.count = leaf.count - keep;
+        System.arraycopy(leaf.keys, keep, right.keys, 0, right.count);
+        Arrays.fill(leaf.keys, keep, leaf.count, null);
+        leaf.count = keep;
+
+        right.previous = leaf;
+        right.next = leaf.next;
+        if (leaf.next != null)
+            leaf.next.previous = right;
+        else
+            tail = right;
+        leaf.next = right;
+        addSibling(leaf, right, right.keys[0], right.count);
+        return right;
+    }
+
+    /**
+     * Adds right to the parent of left, just after it, splitting the parent if it is full
+     *
+     * @param separator the smallest value under right
+     * @param moved the number of values that moved from left to right
+     */
+    private void addSibling(Node left, Node right, Object separator, int moved) {
+        Inner parent = left.parent;
+        if (parent == null) {
+            // the root was split, so the tree gets a level higher
+            parent = new Inner(fanout);
+            parent.children[0] = left;
+            parent.sizes[0] = size + 1;
+            parent.count = 1;
+            left.parent = parent;
+            root = parent;
+        }
+        if (parent.count == fanout)
+            splitInner(parent);
+        // left may have moved to the new half of its parent
+        parent = left.parent;
+
+        int index = parent.indexOf(left) + 1;
+        System.arraycopy(parent.children, index, parent.children, index + 1, parent.count - index);
+        System.arraycopy(parent.sizes, index, parent.sizes, index + 1, parent.count - index);
+        System.arraycopy(parent.separators, index - 1, parent.separators, index, parent.count - index);
+        parent.children[index] = right;
+        parent.separators[index - 1] = separator;
+        parent.sizes[index] = moved;
+        parent.sizes[index - 1] -= moved;
+        parent.count++;
+        right.parent = parent;
+    }
+
+    /**
+     * Moves the upper half of the children of a full inner node into a new node to its right
+     */
+    private void splitInner(Inner node) {
+        Inner right = new Inner(fanout);
+        int keep = (fanout + 1) / 2;
+        right.count = node.count - keep;
+        System.arraycopy(node.children, keep, right.children, 0, right.count);
+        System.arraycopy(node.sizes, keep, right.sizes, 0, right.count);
+        System.arraycopy(node.separators, keep, right.separators, 0, right.count - 1);
+        Object separator = node.separators[keep - 1];
+        int moved = 0;
+        for (int i = 0; i < right.count; i++) {
+            right.children[i].parent = right;
+            moved += right.sizes[i];
+        }
+        Arrays.fill(node.children, keep, node.count, null);
+        Arrays.fill(node.separators, keep - 1, node.count - 1, null);
+        node.count = keep;
+        addSibling(node, right, separator, moved);
+    }
+
+    /**
+     * Removes a value from the tree. When several values compare equal to data, the one that equals() data is
+     * removed, and otherwise the first of them in order.
+     *
+     * @param data the value to remove
+     * @return true if a value was removed, false if no value compares equal to data
+     * @throws NullPointerException if data is null
+     */
+    public boolean remove(T data) throws NullPointerException {
+        if (data == null)
+            throw new NullPointerException("This tree cannot store null references.");
+        Position position = findToRemove(data);
+        if (position == null)
+            return false;
+        removeAt(position.leaf, position.index);
+        return true;
+    }
+
+    public T pollFirst() {
+        if (size == 0)
+            return null;
+        Leaf first = head;
+        T data = key(first.keys, 0);
+        removeAt(first, 0);
+        return data;
+    }
+
+    public T pollLast() {
+        if (size == 0)
+            return null;
+        Leaf last = tail;
+        T data = key(last.keys, last.count - 1);
+        removeAt(last, last.count - 1);
+        return data;
+    }
+
+    /**
+     * Replaces a value in the tree with another one. When the new value sorts between the neighbors of the old one,
+     * it is simply stored in the old value's place; otherwise the old value is removed and the new one inserted.
+     *
+     * @param oldData the value to replace
+     * @param newData the value to store instead
+     * @return true if the value was replaced, false if oldData is not in the tree
+     * @throws NullPointerException when either argument is null
+     */
+    public boolean replace(T oldData, T newData) throws NullPointerException {
+        if (oldData == null || newData == null)
+            throw new NullPointerException("This tree cannot store null references.");
+        Position position = findToRemove(oldData);
+        if (position == null)
+            return false;
+
+        Leaf leaf = position.leaf;
+        int index = position.index;
+        // the separators around a leaf bound its values, and are only known to be respected by values between
+        // two others in the same leaf, or at the very start or end of the tree
+        boolean afterPrevious = index > 0
+                ? BPlusTree.<T>key(leaf.keys, index - 1).compareTo(newData) < 0 : leaf == head;
+        boolean beforeNext = index + 1 < leaf.count
+                ? BPlusTree.<T>key(leaf.keys, index + 1).compareTo(newData) > 0 : leaf == tail;
+        if (afterPrevious && beforeNext) {
+            leaf.keys[index] = newData;
+            return true;
+        }
+        removeAt(leaf, index);
+        return insert(newData);
+    }
+
+    /**
+     * A value's place in the tree: a leaf and an index into its keys
+     */
+    private record Position(Leaf leaf, int index) {
+    }
+
+    /**
+     * @return the position of the first value that is at least from, or null if there is none
+     */
+    private Position lowerBound(Comparable<T> from) {
+        Node node = root;
+        while (node instanceof Inner inner)
+            node = inner.children[childIndex(inner, from, false)];
+        Leaf leaf = (Leaf) node;
+        int index = keyIndex(leaf, from, false);
+        if (index == leaf.count) {
+            // every value in this leaf is smaller, so the next leaf starts with the first value that is not
+            leaf = leaf.next;
+            index = 0;
+        }
+        return leaf == null || leaf.count == 0 ? null : new Position(leaf, index);
+    }
+
+    /**
+     * @return the position of the value that remove(data) should remove, or null if no value compares equal to data
+     */
+    private Position findToRemove(T data) {
+        Position first = lowerBound(data);
+        if (first == null || data.compareTo(key(first.leaf.keys, first.index)) != 0)
+            return null;
+
+        Leaf leaf = first.leaf;
+        int index = first.index;
+        while (leaf != null) {
+            T each = key(leaf.keys, index);
+            if (data.compareTo(each) != 0)
+                return first;
+            if (data.equals(each))
+                return new Position(leaf, index);
+            if (++index == leaf.count) {
+                leaf = leaf.next;
+                index = 0;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Removes the value at index of leaf, dropping the leaf (and any inner nodes left without children) if it
+     * becomes empty
+     */
+    private void removeAt(Leaf leaf, int index) {
+        System.arraycopy(leaf.keys, index + 1, leaf.keys, index, leaf.count - index - 1);
+        leaf.keys[--leaf.count] = null;
+        size--;
+        Metrics.TREE_REMOVES.increment();
+
+        Node child = leaf;
+        for (Inner parent = leaf.parent; parent != null; child = parent, parent = parent.parent)
+            parent.sizes[parent.indexOf(child)]--;
+
+        if (leaf.count == 0 && leaf.parent != null) {
+            if (leaf.previous != null)
+                leaf.previous.next = leaf.next;
+            else
+                head = leaf.next;
+            if (leaf.next != null)
+                leaf.next.previous = leaf.previous;
+            else
+                tail = leaf.previous;
+            removeChild(leaf);
+        }
+    }
+
+    /**
+     * Removes an empty node from its parent, and the parent from its own parent if that leaves it empty
+     */
+    private void removeChild(Node child) {
+        Inner parent = child.parent;
+        int index = parent.indexOf(child);
+        System.arraycopy(parent.children, index + 1, parent.children, index, parent.count - index - 1);
+        System.arraycopy(parent.sizes, index + 1, parent.sizes, index, parent.count - index - 1);
+        // the separator in front of the child goes with it; the first child takes the first separator along
+        int separator = Math.max(0, index - 1);
+        System.arraycopy(parent.separators, separator + 1, parent.separators, separator,
+                Math.max(0, parent.count - separator - 2));
+        parent.count--;
+        parent.children[parent.count] = null;
+        if (parent.count > 0)
+            parent.separators[parent.count - 1] = null;
+
+        if (parent.count == 0 && parent.parent != null) {
+            removeChild(parent);
+        } else {
+            // a root with a single child is replaced by that child
+            while (root instanceof Inner inner && inner.count == 1) {
+                root = inner.children[0];
+                root.parent = null;
+            }
+        }
+    }
+
+    public boolean contains(Comparable<T> data) {
+        if (data == null)
+            return false;
+        Position position = lowerBound(data);
+        return position != null && data.compareTo(key(position.leaf.keys, position.index)) == 0;
+    }
+
+    public int rank(Comparable<T> data) {
+        if (data == null)
+            throw new NullPointerException("This tree cannot store null references.");
+        return countBelow(data, false);
+    }
+
+    public T select(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " is not in a tree of size " + size);
+        Position position = positionAt(index);
+        return key(position.leaf.keys, position.index);
+    }
+
+    /**
+     * @param index the position, which must be at least 0 and less than size()
+     * @return the leaf and index of the value at that position in ascending order
+     */
+    private Position positionAt(int index) {
+        Node node = root;
+        while (node instanceof Inner inner) {
+            int child = 0;
+            while (index >= inner.sizes[child]) {
+                index -= inner.sizes[child];
+                child++;
+            }
+            node = inner.children[child];
+        }
+        return new Position((Leaf) node, index);
+    }
+
+    public int countInRange(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        int start = from == null ? 0 : countBelow(from, false);
+        int end = to == null ? size : countBelow(to, toInclusive);
+        return Math.max(0, end - start);
+    }
+
+    /**
+     * @param inclusive true to also count values equal to data
+     * @return the number of values that are smaller than (or equal to) data
+     */
+    private int countBelow(Comparable<T> data, boolean inclusive) {
+        int count = 0;
+        Node node = root;
+        while (node instanceof Inner inner) {
+            int child = childIndex(inner, data, inclusive);
+            for (int i = 0; i < child; i++)
+                count += inner.sizes[i];
+            node = inner.children[child];
+        }
+        return count + keyIndex((Leaf) node, data, inclusive);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Leaf leaf = new Leaf(fanout);
+        root = leaf;
+        head = leaf;
+        tail = leaf;
+        size = 0;
+    }
+
+    /**
+     * @return the number of levels of the tree, counting the leaves
+     */
+    public int height() {
+        int height = 1;
+        for (Node node = root; node instanceof Inner inner; node = inner.children[0])
+            height++;
+        return height;
+    }
+
+    /**
+     * Adds all of values to the tree. When the tree is empty the values are sorted once (in parallel) and the
+     * tree is built from the sorted array with fromSorted(), otherwise each value is inserted normally.
+     *
+     * @param values the values to add
+     * @throws NullPointerException if values contains null
+     */
+    @Override
+    public void bulkLoad(Collection<T> values) {
+        if (!isEmpty()) {
+            for (T value : values)
+                insert(value);
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        T[] sorted = (T[]) values.toArray(new Comparable<?>[0]);
+        for (T value : sorted)
+            if (value == null)
+                throw new NullPointerException("Cannot insert data value null into the tree.");
+        // parallelSort is stable, so equal values keep their order
+        Arrays.parallelSort(sorted, Comparator.naturalOrder());
+        fromSorted(sorted);
+    }
+
+    /**
+     * Replaces the contents of this tree with the values of sorted in linear time. Leaves are filled to three
+     * quarters (so that the next inserts do not split every leaf at once) and then each level of inner nodes is
+     * built over the one below it.
+     *
+     * @param sorted the values of the new tree in ascending order
+     * @throws IllegalArgumentException if sorted is not in ascending order
+     * @throws NullPointerException if sorted contains null
+     */
+    public void fromSorted(T[] sorted) {
+        for (int i = 1; i < sorted.length; i++)
+            if (sorted[i].compareTo(sorted[i - 1]) < 0)
+                throw new IllegalArgumentException("Values must be in ascending order");
+
+        clear();
+        if (sorted.length == 0)
+            return;
+        int fill = Math.max(2, fanout * 3 / 4);
+        int leaves = (sorted.length + fill - 1) / fill;
+        Node[] level = new Node[leaves];
+        Object[] smallest = new Object[leaves];
+        int[] sizes = new int[leaves];
+        Leaf previous = null;
+        for (int i = 0; i < leaves; i++) {
+            Leaf leaf = new Leaf(fanout);
+            // spreads the values evenly, so the last leaf is not nearly empty
+            int from = (int) ((long) sorted.length * i / leaves);
+            int to = (int) ((long) sorted.length * (i + 1) / leaves);
+            System.arraycopy(sorted, from, leaf.keys, 0, to - from);
+            leaf.count = to - from;
+            leaf.previous = previous;
+            if (previous != null)
+                previous.next = leaf;
+            previous = leaf;
+            level[i] = leaf;
+            smallest[i] = sorted[from];
+            sizes[i] = leaf.count;
+        }
+        head = (Leaf) level[0];
+        tail = previous;
+
+        int count = leaves;
+        while (count > 1) {
+            int parents = (count + fill - 1) / fill;
+            for (int i = 0; i < parents; i++) {
+                int from = (int) ((long) count * i / parents);
+                int to = (int) ((long) count * (i + 1) / parents);
+                Inner inner = new Inner(fanout);
+                int total = 0;
+                for (int child = from; child < to; child++) {
+                    inner.children[child - from] = level[child];
+                    inner.sizes[child - from] = sizes[child];
+                    if (child > from)
+                        inner.separators[child - from - 1] = smallest[child];
+                    level[child].parent = inner;
+                    total += sizes[child];
+                }
+                inner.count = to - from;
+                level[i] = inner;
+                smallest[i] = smallest[from];
+                sizes[i] = total;
+            }
+            count = parents;
+        }
+        root = level[0];
+        size = sorted.length;
+    }
+
+    public void setIterationStartPoint(Comparable<T> startPoint) {
+        this.startPoint = startPoint;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return rangeIterator(startPoint, null, false);
+    }
+
+    @Override
+    public Iterator<T> rangeIterator(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        Position first = from == null ? (size == 0 ? null : new Position(head, 0)) : lowerBound(from);
+        return first == null ? new LeafIterator(null, 0, null, false)
+                : new LeafIterator(first.leaf, first.index, to, toInclusive);
+    }
+
+    /**
+     * @return a spliterator over every value in the tree, in ascending order
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new LeafSpliterator(0, size);
+    }
+
+    /**
+     * Returns a spliterator over the values that rangeIterator(from, to, toInclusive) would return, which knows
+     * its exact size and splits into halves of exactly known size
+     */
+    public Spliterator<T> rangeSpliterator(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        int start = from == null ? 0 : rank(from);
+        return new LeafSpliterator(start, start + countInRange(from, to, toInclusive));
+    }
+
+    /**
+     * @return a sequential stream of every value in the tree, in ascending order, which can be made parallel()
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    @Override
+    public Stream<T> rangeStream(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        return StreamSupport.stream(rangeSpliterator(from, to, toInclusive), false);
+    }
+
+    /**
+     * Walks the keys of one leaf after the other through the leaf links. The tree must not be changed while an
+     * iterator over it is in use.
+     */
+    private class LeafIterator implements Iterator<T> {
+        private final Comparable<T> to;
+        private final boolean toInclusive;
+        private Leaf leaf;
+        private int index;
+
+        LeafIterator(Leaf leaf, int index, Comparable<T> to, boolean toInclusive) {
+            this.to = to;
+            this.toInclusive = toInclusive;
+            this.leaf = leaf;
+            this.index = index;
+            checkBound();
+            Metrics.ITERATORS.increment();
+        }
+
+        // ends the iteration if the next value is past the upper bound of the range
+        private void checkBound() {
+            if (leaf == null || to == null)
+                return;
+            int compare = to.compareTo(key(leaf.keys, index));
+            if (compare < 0 || (!toInclusive && compare == 0))
+                leaf = null;
+        }
+
+        public boolean hasNext() {
+            return leaf != null;
+        }
+
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException("No next value exists");
+            T data = key(leaf.keys, index);
+            if (++index == leaf.count) {
+                leaf = leaf.next;
+                index = 0;
+            }
+            checkBound();
+            Metrics.ITERATOR_NODES.increment();
+            return data;
+        }
+    }
+
+    /**
+     * Walks the values at a range of positions in ascending order. A split finds where its halves start with one
+     * descent using the subtree sizes, so splitting costs O(log n). The tree must not be changed while a spliterator
+     * over it is in use.
+     */
+    private class LeafSpliterator implements Spliterator<T> {
+        // splitting off fewer values than this costs more than it saves
+        private static final int MIN_SPLIT = 64;
+
+        private int position;
+        private final int end;
+        // the leaf and index of the value at position, or null until it is first needed
+        private Leaf leaf;
+        private int index;
+
+        LeafSpliterator(int position, int end) {
+            this.position = position;
+            this.end = end;
+        }
+
+        private void seek() {
+            if (leaf == null) {
+                Position start = positionAt(position);
+                leaf = start.leaf;
+                index = start.index;
+            }
+        }
+
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (position >= end)
+                return false;
+            seek();
+            action.accept(key(leaf.keys, index));
+            position++;
+            if (++index == leaf.count) {
+                leaf = leaf.next;
+                index = 0;
+            }
+            return true;
+        }
+
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (position >= end)
+                return;
+            seek();
+            while (position < end) {
+                // the rest of the current leaf, or as much of it as the range covers
+                int last = Math.min(leaf.count, index + end - position);
+                for (int i = index; i < last; i++)
+                    action.accept(key(leaf.keys, i));
+                position += last - index;
+                leaf = leaf.next;
+                index = 0;
+            }
+            leaf = null;
+        }
+
+        public Spliterator<T> trySplit() {
+            int remaining = end - position;
+            if (remaining < 2 * MIN_SPLIT)
+                return null;
+            int middle = position + remaining / 2;
+            LeafSpliterator prefix = new LeafSpliterator(position, middle);
+            prefix.leaf = leaf;
+            prefix.index = index;
+            position = middle;
+            leaf = null;
+            return prefix;
+        }
+
+        public long estimateSize() {
+            return end - position;
+        }
+
+        public int characteristics() {
+            return ORDERED | SORTED | SIZED | SUBSIZED | NONNULL;
+        }
+
+        // values are in their natural order
+        public Comparator<? super T> getComparator() {
+            return null;
+        }
+    }
+
+    /**
+     * Checks the subtree rooted at node: sizes, parent references, that no node is empty or overfull, that every
+     * value lies between the separators around it, and that all leaves are at the same depth
+     *
+     * @param low the separator in front of node, or null
+     * @param high the separator after node, or null
+     * @return the number of values under node, or -1 if a property is broken
+     */
+    private int checkNode(Node node, T low, T high, int depth, int[] leafDepth) {
+        if (node.count == 0 || node.count > fanout)
+            return -1;
+        if (node instanceof Leaf leaf) {
+            if (leafDepth[0] == -1)
+                leafDepth[0] = depth;
+            if (leafDepth[0] != depth)
+                return -1;
+            for (int i = 0; i < leaf.count; i++) {
+                T each = key(leaf.keys, i);
+                if ((low != null && each.compareTo(low) < 0) || (high != null && each.compareTo(high) > 0)
+                        || (i > 0 && each.compareTo(key(leaf.keys, i - 1)) < 0))
+                    return -1;
+            }
+            return leaf.count;
+        }
+        Inner inner = (Inner) node;
+        int total = 0;
+        for (int i = 0; i < inner.count; i++) {
+            T childLow = i == 0 ? low : key(inner.separators, i - 1);
+            T childHigh = i == inner.count - 1 ? high : key(inner.separators, i);
+            int count = inner.children[i].parent == inner
+                    ? checkNode(inner.children[i], childLow, childHigh, depth + 1, leafDepth) : -1;
+            if (count == -1 || count != inner.sizes[i])
+                return -1;
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return true if the tree and its leaf links are consistent with size
+     */
+    private boolean isValid() {
+        if (root.parent != null || (size > 0 && checkNode(root, null, null, 0, new int[] {-1}) != size))
+            return false;
+        int count = 0;
+        Leaf last = null;
+        for (Leaf leaf = head; leaf != null; leaf = leaf.next) {
+            if (leaf.previous != last)
+                return false;
+            count += leaf.count;
+            last = leaf;
+        }
+        return last == tail && count == size;
+    }
+
+    /**
+     * Tests random inserts, removes and polls with a small fanout against a sorted list, checking the whole tree
+     * after every operation
+     */
+    @Test
+    public void testRandomOperations() {
+        for (int fanout : new int[] {3, 4, 7}) {
+            java.util.Random random = new java.util.Random(fanout);
+            java.util.List<Integer> expected = new java.util.ArrayList<>();
+            BPlusTree<Integer> testTree = new BPlusTree<>(fanout);
+            for (int i = 0; i < 3000; i++) {
+                int value = random.nextInt(200);
+                switch (random.nextInt(6)) {
+                    case 0 -> Assertions.assertEquals(expected.remove((Integer) value), testTree.remove(value));
+                    case 1 -> Assertions.assertEquals(expected.isEmpty() ? null : expected.remove(0),
+                            testTree.pollFirst());
+                    case 2 -> Assertions.assertEquals(
+                            expected.isEmpty() ? null : expected.remove(expected.size() - 1), testTree.pollLast());
+                    default -> {
+                        testTree.insert(value);
+                        expected.add(value);
+                        java.util.Collections.sort(expected);
+                    }
+                }
+                Assertions.assertTrue(testTree.isValid());
+                Assertions.assertEquals(expected.size(), testTree.size());
+                if (i % 100 == 0) {
+                    java.util.List<Integer> values = new java.util.ArrayList<>();
+                    testTree.forEach(values::add);
+                    Assertions.assertEquals(expected, values);
+                }
+            }
+            while (!expected.isEmpty()) {
+                Assertions.assertEquals(expected.remove(expected.size() / 2), testTree.select(testTree.size() / 2));
+                Assertions.assertTrue(testTree.remove(testTree.select(testTree.size() / 2)));
+                Assertions.assertTrue(testTree.isValid());
+            }
+            // the tree emptied out and shrank back to a single leaf
+            Assertions.assertTrue(testTree.isEmpty());
+            Assertions.assertEquals(1, testTree.height());
+        }
+
+        BPlusTree<Integer> testTree = new BPlusTree<>(4);
+        for (int i = 0; i < 100; i += 2)
+            testTree.insert(i);
+        Assertions.assertTrue(testTree.replace(10, 11));
+        Assertions.assertTrue(testTree.replace(20, 51));
+        Assertions.assertFalse(testTree.replace(21, 23));
+        Assertions.assertTrue(testTree.contains(11) && testTree.contains(51));
+        Assertions.assertFalse(testTree.contains(10) || testTree.contains(20));
+        Assertions.assertTrue(testTree.isValid());
+        Assertions.assertThrows(NullPointerException.class, () -> testTree.insert(null));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> new BPlusTree<Integer>(2));
+    }
+
+    /**
+     * Tests that removing one of several equal values, spread over several leaves, removes the one that equals() it
+     */
+    @Test
+    public void testRemoveDuplicates() {
+        record Pair(int key, int id) implements Comparable<Pair> {
+            public int compareTo(Pair other) {
+                return Integer.compare(key, other.key);
+            }
+        }
+        BPlusTree<Pair> pairs = new BPlusTree<>(4);
+        for (int i = 0; i < 30; i++)
+            pairs.insert(new Pair(i % 3, i));
+        Assertions.assertTrue(pairs.remove(new Pair(2, 17)));
+        Assertions.assertFalse(pairs.remove(new Pair(3, 17)));
+        for (Pair each : pairs)
+            Assertions.assertTrue(each.id() != 17);
+        Assertions.assertTrue(pairs.isValid());
+        Assertions.assertEquals(29, pairs.size());
+        Assertions.assertEquals(10, pairs.countInRange(new Pair(1, 0), new Pair(1, 0), true));
+        // equal values keep the order they were inserted in
+        int last = -1;
+        for (Pair each : pairs) {
+            if (each.key() == 1) {
+                Assertions.assertTrue(each.id() > last);
+                last = each.id();
+            }
+        }
+    }
+
+    /**
+     * Tests bulk loading, range iteration, the start point, order statistics and streams against the same values
+     * in an IterableRedBlackTree
+     */
+    @Test
+    public void testMatchesIterableRedBlackTree() {
+        for (int n = 0; n <= 200; n++) {
+            java.util.List<Integer> values = new java.util.ArrayList<>();
+            for (int i = n - 1; i >= 0; i--)
+                values.add(i / 2);
+            BPlusTree<Integer> testTree = new BPlusTree<>(4);
+            testTree.bulkLoad(values);
+            Assertions.assertTrue(testTree.isValid());
+            Assertions.assertEquals(n, testTree.size());
+        }
+
+        java.util.Random random = new java.util.Random(31);
+        java.util.List<Integer> values = new java.util.ArrayList<>();
+        for (int i = 0; i < 5000; i++)
+            values.add(random.nextInt(1000));
+        BPlusTree<Integer> testTree = new BPlusTree<>(16);
+        IterableRedBlackTree<Integer> reference = new IterableRedBlackTree<>();
+        testTree.bulkLoad(values.subList(0, 2500));
+        reference.bulkLoad(values.subList(0, 2500));
+        testTree.bulkLoad(values.subList(2500, 5000));
+        reference.bulkLoad(values.subList(2500, 5000));
+        Assertions.assertTrue(testTree.isValid());
+
+        for (int from = -10; from <= 1010; from += 17) {
+            int to = from + random.nextInt(100);
+            java.util.List<Integer> expected = new java.util.ArrayList<>();
+            reference.rangeIterator(from, to, true).forEachRemaining(expected::add);
+            java.util.List<Integer> actual = new java.util.ArrayList<>();
+            testTree.rangeIterator(from, to, true).forEachRemaining(actual::add);
+            Assertions.assertEquals(expected, actual);
+            Assertions.assertEquals(reference.rank(from), testTree.rank(from));
+            Assertions.assertEquals(reference.select(Math.min(4999, Math.max(0, from * 5))),
+                    testTree.select(Math.min(4999, Math.max(0, from * 5))));
+            Assertions.assertEquals(reference.countInRange(from, to, false), testTree.countInRange(from, to, false));
+            Assertions.assertEquals(expected, testTree.rangeStream(from, to, true).parallel()
+                    .collect(java.util.stream.Collectors.toList()));
+        }
+        Assertions.assertEquals(reference.stream().collect(java.util.stream.Collectors.toList()),
+                testTree.stream().parallel().collect(java.util.stream.Collectors.toList()));
+
+        testTree.setIterationStartPoint(500);
+        Assertions.assertEquals(reference.select(reference.rank(500)), testTree.iterator().next());
+        testTree.setIterationStartPoint(null);
+        Assertions.assertEquals(reference.select(0), testTree.iterator().next());
+        Assertions.assertFalse(testTree.rangeIterator(2000, null, false).hasNext());
+    }
+}
@@ -1,18 +1,74 @@
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Scanner;
-import java.io.File;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Iterator;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 
 public class Backend implements BackendInterface{
+  // songs.csv (the Spotify top songs export) is UTF-8 encoded; the loaders, SongTable and the
+  // benchmarks' synthetic files all use this
+  static final Charset CHARSET = StandardCharsets.UTF_8;
+
   private IterableSortedCollection<SongInterface> tree;
+  // the tree plus secondary indexes on the attributes users filter by most
+  private IndexedSongStore store;
   private int year = -1;
   private int low = -1;
   private int high = -1;
+  // when true, readData() keeps a snapshot next to each csv file for faster restarts
+  private boolean snapshots = false;
+  // results of getRange() and fiveLoudest(), dropped whenever generation changes. Loading data
+  // through this class bumps the generation; the tree should not be changed from outside
+  private static final int CACHE_SIZE = 256;
+  private static final int ALL_SONGS = -1;
+  // the attributes that this class and ConcurrentBackend keep secondary indexes on by default:
+  // the ones that getRange(), filterNewSongs() and fiveLoudest() filter and rank by. Each
+  // index costs about as much memory and insert time as the tree itself
+  static final SongAttribute[] INDEXED = {SongAttribute.YEAR, SongAttribute.LOUDNESS};
+  private final ResultCache<RangeKey, List<String>> cache = new ResultCache<>(CACHE_SIZE);
+  private long generation = 0;
+  // when false, getRange() and fiveLoudest() always run their query
+  private boolean caching = true;
+  // when true, getRange() and filterNewSongs() scan the columns of a SongTable copy of the tree,
+  // which is rebuilt on the first query after the generation changes
+  private boolean columnScans = false;
+  private SongScanEngine engine;
+  private long engineGeneration = -1;
+  
+  /**
+   * A getRange() or fiveLoudest() call: the liveness range, year filter, and the number of 
+   * songs asked for (ALL_SONGS for getRange())
+   */
+  private record RangeKey(int low, int high, int minYear, int k) {
+    RangeKey {
+      // every empty range has the same (empty) result
+      if (high <= low) {
+        low = 0;
+        high = 0;
+        minYear = -1;
+      }
+    }
+  }
   
   public Backend(IterableSortedCollection<SongInterface> tree) {
+    this(tree, INDEXED);
+  }
+  
+  /**
+   * @param tree is the tree that holds the songs
+   * @param indexed is the attributes to keep secondary indexes on, for callers of query(), 
+   * countRange() and topK() that filter on other attributes than year and loudness
+   */
+  public Backend(IterableSortedCollection<SongInterface> tree, SongAttribute... indexed) {
     this.tree = tree;
+    this.store = new IndexedSongStore(tree, indexed);
   }
   
   /**
@@ -21,54 +77,194 @@ public class Backend implements BackendInterface{
    * @throws IOException when there is trouble finding/reading file
    */
   public void readData(String filename) throws IOException{
+    generation++;
+    long start = Metrics.start();
+    int before = tree.size();
+    if (MappedSongCatalog.isCatalog(filename)) {
+      // a binary catalog written by writeCatalog(): map it instead of parsing anything
+      store.bulkLoad(MappedSongCatalog.open(filename).songs());
+    }
+    else if (snapshots) {
+      loadWithSnapshot(filename, filename + ".snapshot");
+    }
+    else {
+      // add all of the songs to the tree at once
+      store.bulkLoad(readSongs(filename));
+    }
+    recordLoad(start, before);
+  }
+  
+  /**
+   * Loads data from the .csv file referenced by filename, restoring the already balanced tree 
+   * from snapshotFile instead when it is an up to date snapshot of that file. Otherwise the csv
+   * file is loaded and a fresh snapshot is written for the next start. The snapshot is only a
+   * cache, so failing to read or write it never fails the load.
+   * @param filename is the name of the csv file to load data from
+   * @param snapshotFile is the name of the snapshot file to restore from and save to
+   * @throws IOException when there is trouble finding/reading the csv file
+   */
+  public void readData(String filename, String snapshotFile) throws IOException{
+    generation++;
+    long start = Metrics.start();
+    int before = tree.size();
+    loadWithSnapshot(filename, snapshotFile);
+    recordLoad(start, before);
+  }
+  
+  private void loadWithSnapshot(String filename, String snapshotFile) throws IOException{
+    // a snapshot only holds the songs of one csv file, so it cannot be used to add to songs
+    // that are already loaded, or for trees that cannot be snapshotted
+    if (!tree.isEmpty() || !(tree instanceof IterableRedBlackTree)) {
+      store.bulkLoad(readSongs(filename));
+      return;
+    }
     try {
-      // use scanner
-      Scanner scanner = new Scanner(new File(filename));
-
-      String song;
+      if (SongSnapshot.restore(store, filename, snapshotFile)) {
+        return;
+      }
+    }
+    catch (IOException e) {
+      // a corrupt snapshot is rebuilt below
+    }
+    store.bulkLoad(readSongs(filename));
+    try {
+      SongSnapshot.save(store, filename, snapshotFile);
+    }
+    catch (IOException e) {
+      // the songs are loaded; the next start just parses the csv file again
+    }
+  }
+  
+  /**
+   * Records a load that started at start (from Metrics.start()) when the tree held before songs
+   */
+  private void recordLoad(long start, int before){
+    if (start == 0) {
+      return;
+    }
+    Metrics.ROWS_LOADED.add(tree.size() - before);
+    Metrics.READ_DATA.recordSince(start);
+    Metrics.TREE_SIZE.set(tree.size());
+    if (tree instanceof BinarySearchTree<?> bst) {
+      Metrics.TREE_HEIGHT.set(bst.height());
+    }
+  }
+  
+  /**
+   * Makes readData() save a snapshot of each csv file it loads next to that file (as 
+   * filename.snapshot), and restore from it on later loads while the csv file is unchanged.
+   * @param enabled is true to use snapshots, false to always parse the csv file
+   */
+  public void setSnapshots(boolean enabled){
+    this.snapshots = enabled;
+  }
+  
+  /**
+   * Turns the result cache of getRange(), filterNewSongs() and fiveLoudest() on or off. It is on
+   * by default; turning it off drops every cached result.
+   * @param enabled is true to reuse earlier results, false to run every query
+   */
+  public void setCaching(boolean enabled){
+    this.caching = enabled;
+    if (!enabled) {
+      generation++;
+    }
+  }
+  
+  /**
+   * Makes getRange() and filterNewSongs() evaluate their query as a scan over the columns of a 
+   * SongTable (see SongScanEngine) instead of through the tree and its indexes. The table is 
+   * copied from the tree on the first query after each load, so this pays off when many 
+   * queries run against the same songs, especially wide ranges and year filters that the 
+   * indexes do not narrow down much.
+   * @param enabled is true to scan columns, false to query the tree
+   */
+  public void setColumnScans(boolean enabled){
+    this.columnScans = enabled;
+    if (!enabled) {
+      engine = null;
+    }
+  }
+  
+  /**
+   * Brings the loaded songs up to date with a new version of a .csv file. Songs are matched up
+   * with the loaded ones by title and artist, and only the songs that were inserted, updated or
+   * deleted are changed in the tree and indexes, so unlike readData() this never duplicates the
+   * songs that are already loaded.
+   * @param filename is the name of the csv file with the new version of the songs
+   * @return the changes that were applied
+   * @throws IOException when there is trouble finding/reading file
+   */
+  public SongDiff refreshData(String filename) throws IOException{
+    generation++;
+    List<SongInterface> loaded = new ArrayList<SongInterface>(tree.size());
+    tree.rangeIterator(null, null, false).forEachRemaining(loaded::add);
+    SongDiff diff = SongDiff.between(loaded, readSongs(filename));
+    diff.applyTo(store);
+    return diff;
+  }
+  
+  /**
+   * Saves every loaded song to a binary catalog file, which later calls to readData() can
+   * memory-map instead of parsing the csv file again.
+   * @param filename is the name of the catalog file to write
+   * @throws IOException when there is trouble writing the file
+   */
+  public void writeCatalog(String filename) throws IOException{
+    List<SongInterface> songs = new ArrayList<SongInterface>(tree.size());
+    tree.rangeIterator(null, null, false).forEachRemaining(songs::add);
+    MappedSongCatalog.write(filename, songs);
+  }
+  
+  /**
+   * Parses every song in the .csv file referenced by filename.
+   * @param filename is the name of the csv file to load data from
+   * @return the songs in the order they appear in the file
+   * @throws IOException when there is trouble finding/reading file
+   */
+  static List<SongInterface> readSongs(String filename) throws IOException{
+    try (SongCsvReader reader = new SongCsvReader(new InputStreamReader(
+        new FileInputStream(filename), CHARSET))) {
       // skips the first line
-      if (scanner.hasNextLine())
-        song = scanner.nextLine();
+      reader.skipRecord();
 
-      while (scanner.hasNextLine()) {
-        // each line is a song
-        song = scanner.nextLine();
-  
-        // make a list by seperating by ","
-        ArrayList<String> attributesList = new ArrayList<>();
-        String[] attributes = song.split(",");
-  
-        for (String attribute : attributes) {
-          attributesList.add(attribute);
-        }
-  
-        // if a song starts with a quote and the list is longer than 14 items, 
-        // then we seperated a field with commas
-        // merge the items in the list until the size is 14
-        // assuming there are no quotes in any other field other than title
-        while (attributesList.size() > 14) {
-          for (int i = 0; i < attributesList.size() - 1; i++) {
-            if (attributesList.get(i).startsWith("\"")) {
-              attributesList.set(i, attributesList.get(i) + "," + attributesList.get(i + 1));
-              attributesList.remove(i + 1);
-              break;
-            }
-          }
-        }
-        // if any field starts with double quotes, replace it with single quotes
-        for (int i = 0; i < attributesList.size(); i ++) {
-          if (attributesList.get(i).startsWith("\"")){
-            attributesList.set(i, attributesList.get(i).substring
-                (1, attributesList.get(i).length()-1).replace("\"\"", "\""));
-            
-          }
-        }
-        // add song to tree
-        tree.insert(new Song(attributesList));
+      // each record is a song
+      List<SongInterface> songs = new ArrayList<SongInterface>();
+      for (Song song = reader.next(); song != null; song = reader.next()) {
+        songs.add(song);
       }
-    } 
+      return songs;
+    }
+    catch (IOException e) {
+      throw e;
+    }
+    catch (Exception e){
+      throw new IOException("Could not load " + filename + ": " + e.getMessage(), e);
+    }
+  }
+  
+  /**
+   * Loads data from the .csv file referenced by filename like readData(), but memory-maps the
+   * file and parses it on all available cores. Meant for large catalogs; for small files the
+   * thread hand-off costs more than it saves.
+   * @param filename is the name of the csv file to load data from
+   * @throws IOException when there is trouble finding/reading file
+   */
+  public void readDataParallel(String filename) throws IOException{
+    generation++;
+    long start = Metrics.start();
+    int before = tree.size();
+    try {
+      List<SongInterface> songs = new ArrayList<SongInterface>(new MappedSongLoader(filename,
+          CHARSET, Runtime.getRuntime().availableProcessors()).load());
+      store.bulkLoad(songs);
+      recordLoad(start, before);
+    }
+    catch (IOException e) {
+      throw e;
+    }
     catch (Exception e){
-      throw new IOException();
+      throw new IOException("Could not load " + filename + ": " + e.getMessage(), e);
     }
   }
   
@@ -80,33 +276,149 @@ public class Backend implements BackendInterface{
    * year specifications
    */
   private List<SongInterface> getOutput(int low, int high){
+    if (columnScans) {
+      return columnEngine().select(getQuery(low, high));
+    }
+    return store.select(getQuery(low, high));
+  }
+  
+  /**
+   * @return a scan engine over a SongTable holding the songs of the tree, in the tree's order 
+   * so that songs with the same liveness come back in the same order as from the tree
+   */
+  private SongScanEngine columnEngine(){
+    if (engine == null || engineGeneration != generation) {
+      SongTable table = new SongTable();
+      tree.rangeIterator(null, null, false).forEachRemaining(table::add);
+      engine = new SongScanEngine(table);
+      engineGeneration = generation;
+    }
+    return engine;
+  }
+  
+  /**
+   * Saves the liveness range and builds the query that songs in it have to match
+   * @param low - low range for liveness
+   * @param high - high range for liveness
+   * @returns songs with low <= liveness < high and, once filterNewSongs() has been called, 
+   * a recent enough year
+   */
+  private SongQuery getQuery(int low, int high){
     this.low = low;
     this.high = high;
-    List<SongInterface> output = new ArrayList<SongInterface>();
-    
-    // create random song input with the low value to use in tree
-    ArrayList<String> info = new ArrayList<String>();
-    while (info.size() <= 14) {
-      info.add(Integer.toString(low));
-    }
-    Song start = new Song(info);
-    
-    // iterate through tree starting at our song
-    this.tree.setIterationStartPoint(start);
-    Iterator<SongInterface> iterator = this.tree.iterator();
-    // add songs to output if they are within liveness range
-    while(iterator.hasNext()) {
-      SongInterface curr = iterator.next();
-      if (curr.getLiveness() >= high) {
-        break;
-      }
-      if (curr.getYear() >= this.year) {
-        output.add(curr);
-      }
+    return rangeQuery(low, high);
+  }
+  
+  /**
+   * Builds the query for getQuery() without saving the range
+   */
+  private SongQuery rangeQuery(int low, int high){
+    return rangeQuery(low, high, this.year);
+  }
+  
+  /**
+   * Builds the query behind getRange(), filterNewSongs() and fiveLoudest(), for this class and
+   * ConcurrentBackend
+   * @param low is the minimum Liveness of matching songs
+   * @param high is the Liveness that all matching songs are below
+   * @param minYear is the minimum year, or -1 for no year filter
+   * @return the query
+   */
+  static SongQuery rangeQuery(int low, int high, int minYear){
+    SongQuery query = SongQuery.where(SongQuery.between(SongAttribute.LIVENESS, low, high - 1));
+    if (minYear != -1) {
+      query = query.and(SongQuery.atLeast(SongAttribute.YEAR, minYear));
+    }
+    return query;
+  }
+  
+  /**
+   * @param songs is the songs to list
+   * @return the titles of songs, in the same order, as getRange() returns them
+   */
+  static List<String> titles(List<SongInterface> songs){
+    List<String> output = new ArrayList<String>(songs.size());
+    for (SongInterface song : songs) {
+      output.add(song.getTitle());
+    }
+    return output;
+  }
+  
+  /**
+   * @param songs is the songs to list
+   * @return the loudness and title of each song, in the same order, as fiveLoudest() returns them
+   */
+  static List<String> loudnessAndTitles(List<SongInterface> songs){
+    List<String> output = new ArrayList<String>(songs.size());
+    for (SongInterface song : songs) {
+      output.add(Integer.toString(song.getLoudness()) + ": " + song.getTitle());
     }
     return output;
   }
   
+  /**
+   * Retrieves one page of the titles that getRange(low, high) would return. Each page is read
+   * straight from the tree, so only pageSize titles are held at a time no matter how wide the
+   * range is. Like getRange(), this saves the range for filterNewSongs() and fiveLoudest().
+   * @param low is the minimum Liveness of songs in the returned page
+   * @param high is the Liveness that all returned songs are below
+   * @param pageToken is the token of the previous page, or null for the first page
+   * @param pageSize is the maximum number of titles on the page
+   * @return the page, with the token for the next one
+   * @throws IllegalArgumentException when pageSize is not positive or pageToken is malformed
+   */
+  public SongPage getRange(int low, int high, String pageToken, int pageSize){
+    return SongPage.read(store, getQuery(low, high), pageToken, pageSize);
+  }
+  
+  /**
+   * Streams the songs that getRange(low, high) would return, in ascending order by liveness. 
+   * Songs are read lazily from the tree as the stream is consumed, so nothing is gathered up 
+   * front. Like getRange(), this saves the range for filterNewSongs() and fiveLoudest().
+   * @param low is the minimum Liveness of songs in the stream
+   * @param high is the Liveness that all streamed songs are below
+   * @return a sequential stream of the songs in the range
+   */
+  public Stream<SongInterface> streamRange(int low, int high){
+    return stream(getQuery(low, high));
+  }
+  
+  /**
+   * Streams the songs that match query, in ascending order by liveness, reading them lazily 
+   * from the tree. This does not use or change the range and year saved by getRange().
+   * @param query is the conditions that songs must meet
+   * @return a sequential stream of the matching songs
+   */
+  public Stream<SongInterface> stream(SongQuery query){
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(store.iterator(query, null),
+        Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+  
+  /**
+   * Counts the songs that getRange(low, high) would return, without building the list. Without 
+   * a year filter this takes O(log n) time, using the subtree sizes of the tree. This does not
+   * change the range saved by getRange().
+   * @param low is the minimum Liveness of songs to count
+   * @param high is the Liveness that all counted songs are below
+   * @return the number of songs in the range
+   */
+  public int countRange(int low, int high){
+    return store.count(rangeQuery(low, high));
+  }
+  
+  /**
+   * Finds every song that matches query in a single pass. The most selective range of the
+   * query is used to seek into an index, and the rest of its conditions are checked only on
+   * the songs found there. This does not use or change the range and year saved by getRange()
+   * and filterNewSongs().
+   *
+   * @param query is the conditions that songs must meet
+   * @return List of matching songs, sorted in ascending order by Liveness
+   */
+  public List<SongInterface> query(SongQuery query){
+    return store.select(query);
+  }
+  
   /**
    * Retrieves a list of song titles for songs that have a Liveness
    * within the specified range (sorted by Liveness in ascending order).  If
@@ -123,10 +435,19 @@ public class Backend implements BackendInterface{
    * @return List of titles for all songs in specified range
    */
   public List<String> getRange(int low, int high){
-    List<String> output = new ArrayList<String>();
-    for (SongInterface song : getOutput(low, high)) {
-      output.add(song.getTitle());
+    long start = Metrics.start();
+    RangeKey key = new RangeKey(low, high, this.year, ALL_SONGS);
+    List<String> output = caching ? cache.get(key, generation) : null;
+    if (output != null) {
+      getQuery(low, high);
+    }
+    else {
+      output = Collections.unmodifiableList(titles(getOutput(low, high)));
+      if (caching) {
+        cache.put(key, output, generation);
+      }
     }
+    Metrics.GET_RANGE.recordSince(start);
     return output;
   }
   
@@ -167,42 +488,75 @@ public class Backend implements BackendInterface{
    * @throws IllegalStateException when getRange() was not previously called.
    */
   public List<String> fiveLoudest(){
-    // throw error if getRange() not called
     if (this.low == -1) {
       throw new IllegalStateException("getRange() not called yet");
     }
-    List<String> output = new ArrayList<String>();
-    List<SongInterface> temp = new ArrayList<SongInterface>();
-    List<SongInterface> songs = getOutput(this.low, this.high);
-    
-    // find song in tree which is the loudest, append it to temp and remove it 
-    // from the tree. repeat this process for the five loudest songs or if there
-    // are fewer than five songs, return these songs
-    for (int j = 0; j < 5 && songs.size() != 0; j++) {
-      int loudest = -1000;
-      int index = -1;
-
-      for (int i = 0; i < songs.size(); i++) {
-        if (songs.get(i).getLoudness() >= loudest) {
-          loudest = songs.get(i).getLoudness();
-          index = i;
-        }
-      }
-      temp.add(songs.get(index));
-      songs.remove(index);
-    }
-    // make a new tree and go through the output to put the five loudest songs in
-    // order of liveness
-    List<SongInterface> songs2 = getOutput(this.low, this.high);
-    for (SongInterface song : songs2) {
-      for (SongInterface loud : temp) {
-        if (loud.compareTo(song) == 0) {
-          output.add(Integer.toString(loud.getLoudness()) + ": " + loud.getTitle());
-          break;
-        }
+    long start = Metrics.start();
+    RangeKey key = new RangeKey(this.low, this.high, this.year, 5);
+    List<String> output = caching ? cache.get(key, generation) : null;
+    if (output == null) {
+      output = Collections.unmodifiableList(loudnessAndTitles(
+          topK(SongAttribute.LOUDNESS, 5, true)));
+      if (caching) {
+        cache.put(key, output, generation);
       }
     }
+    Metrics.FIVE_LOUDEST.recordSince(start);
     return output;
   }
+  
+  /**
+   * @return the number of getRange(), filterNewSongs() and fiveLoudest() calls answered from 
+   * the result cache
+   */
+  public long getCacheHits(){
+    return cache.getHits();
+  }
+  
+  /**
+   * @return the number of getRange(), filterNewSongs() and fiveLoudest() calls that had to run
+   * their query
+   */
+  public long getCacheMisses(){
+    return cache.getMisses();
+  }
+  
+  /**
+   * Finds the k songs with the highest (or lowest) value of an attribute among the songs in
+   * the liveness range of the most recent call to getRange(), also applying the minYear
+   * threshold if one was set by filterNewSongs(). The songs are found in a single pass that
+   * keeps only the best k seen so far in a heap. Ties go to the song with the higher liveness.
+   *
+   * @param attribute is the attribute to rank songs by
+   * @param k is the maximum number of songs to return
+   * @param highest is true to return the largest values, false for the smallest
+   * @return List of at most k songs in increasing order of liveness
+   * @throws IllegalStateException when getRange() was not previously called.
+   * @throws IllegalArgumentException when k is not positive
+   */
+  public List<SongInterface> topK(SongAttribute attribute, int k, boolean highest){
+    // throw error if getRange() not called
+    if (this.low == -1) {
+      throw new IllegalStateException("getRange() not called yet");
+    }
+    return topK(getQuery(this.low, this.high), attribute, k, highest);
+  }
+  
+  /**
+   * Finds the k songs matching query with the highest (or lowest) value of an attribute, in a
+   * single pass that keeps only the best k seen so far in a heap. Ties go to the song with the
+   * higher liveness. This does not use or change the range and year saved by getRange() and
+   * filterNewSongs().
+   *
+   * @param query is the conditions that songs must meet
+   * @param attribute is the attribute to rank songs by
+   * @param k is the maximum number of songs to return
+   * @param highest is true to return the largest values, false for the smallest
+   * @return List of at most k songs in increasing order of liveness
+   * @throws IllegalArgumentException when k is not positive
+   */
+  public List<SongInterface> topK(SongQuery query, SongAttribute attribute, int k,
+      boolean highest){
+    return store.topK(query, attribute, k, highest);
+  }
 }
-
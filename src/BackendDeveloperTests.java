@@ -3,6 +3,9 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import org.junit.jupiter.api.Test;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 public class BackendDeveloperTests{
   /** 
@@ -142,6 +145,671 @@ public class BackendDeveloperTests{
     }));
   }
 
+  /** 
+   * Checks that a Song parses every column of a csv row once, up front
+   */
+  @Test
+  public void testSongParsing() {
+    Song song = new Song(java.util.Arrays.asList(new String[]{
+        "Hey, Soul Sister", "Train", "neo mellow", "2010", "97", "89", "67", "-4", "8", "80",
+        "217", "19", "4", "83"}));
+    assertEquals("Hey, Soul Sister", song.getTitle());
+    assertEquals(2010, song.getYear());
+    assertEquals(-4, song.getLoudness());
+    assertEquals(8, song.getLiveness());
+    assertEquals(83, song.getPopularity());
+    // rows with the wrong number of fields are rejected
+    try {
+      new Song(java.util.Arrays.asList(new String[]{"Hey, Soul Sister", "Train"}));
+      assertFalse(true);
+    }
+    catch (IllegalArgumentException e) {
+      assertTrue(true);
+    }
+  }
 
-}
+  /** 
+   * Checks that the csv reader handles quoted commas, escaped quotes and malformed rows
+   */
+  @Test
+  public void testCsvReader() throws IOException {
+    SongCsvReader reader = new SongCsvReader(new java.io.StringReader(
+        "title,artist,top genre,year,bpm,nrgy,dnce,dB,live,val,dur,acous,spch,pop\r\n"
+        + "\"Happy - From \"\"Despicable Me 2\"\"\",Pharrell Williams,dance pop,2014,160,82,65,"
+        + "-5,9,96,233,22,18,79\r\n"
+        + "\"Hey, Soul Sister\",Train,neo mellow,2010,97,89,67,-4,8,80,217,19,4,83\n"
+        + "\n"
+        + "Broken,Nobody,pop,2010,97\n"));
+    assertTrue(reader.skipRecord());
+    Song song = reader.next();
+    assertEquals("Happy - From \"Despicable Me 2\"", song.getTitle());
+    assertEquals(-5, song.getLoudness());
+    song = reader.next();
+    assertEquals("Hey, Soul Sister", song.getTitle());
+    assertEquals(83, song.getPopularity());
+    // the short row should be rejected rather than silently padded
+    try {
+      reader.next();
+      assertFalse(true);
+    }
+    catch (IOException e) {
+      assertTrue(true);
+    }
+  }
 
+  /** 
+   * Checks that the parallel, memory-mapped load finds the same songs as readData()
+   */
+  @Test
+  public void testReadParallel() throws IOException {
+    Backend sequential = new Backend(new IterableRedBlackTree<>());
+    sequential.readData("songs.csv");
+    Backend parallel = new Backend(new IterableRedBlackTree<>());
+    parallel.readDataParallel("songs.csv");
+    assertEquals(sequential.getRange(0, 101), parallel.getRange(0, 101));
+    // splitting into many small chunks should not break any quoted titles
+    assertEquals(600, new MappedSongLoader("songs.csv",
+        Backend.CHARSET, 64).load().size());
+  }
+
+  /** 
+   * Checks that the indexed store plans on the most selective index and matches a full scan
+   */
+  @Test
+  public void testIndexedStore() throws IOException {
+    IterableSortedCollection<SongInterface> tree = new IterableRedBlackTree<>();
+    Backend b = new Backend(tree);
+    b.readData("songs.csv");
+    IndexedSongStore store = new IndexedSongStore(tree, SongAttribute.YEAR, SongAttribute.LOUDNESS);
+    java.util.List<AttributeRange> ranges = java.util.Arrays.asList(
+        new AttributeRange(SongAttribute.LIVENESS, 0, 100),
+        new AttributeRange(SongAttribute.YEAR, 2019, 2019),
+        new AttributeRange(SongAttribute.LOUDNESS, -6, 0));
+    // a single year is far narrower than every liveness
+    assertEquals(SongAttribute.YEAR, store.plan(ranges).getAttribute());
+
+    java.util.List<SongInterface> expected = new java.util.ArrayList<>();
+    for (SongInterface song : tree) {
+      if (song.getYear() == 2019 && song.getLoudness() >= -6) {
+        expected.add(song);
+      }
+    }
+    assertTrue(expected.size() > 0);
+    assertEquals(expected, store.select(ranges));
+  }
+
+  /** 
+   * Checks that topK() returns the k best songs in liveness order for a configurable k
+   */
+  @Test
+  public void testTopK() throws IOException {
+    Backend b = new Backend(new IterableRedBlackTree<>());
+    b.readData("songs.csv");
+    b.getRange(0, 101);
+    java.util.List<SongInterface> top = b.topK(SongAttribute.POPULARITY, 50, true);
+    assertEquals(50, top.size());
+    // every song left out is no more popular than the least popular one returned
+    int least = Integer.MAX_VALUE;
+    for (int i = 0; i < top.size(); i++) {
+      least = Math.min(least, top.get(i).getPopularity());
+      if (i > 0) {
+        assertTrue(top.get(i - 1).getLiveness() <= top.get(i).getLiveness());
+      }
+    }
+    int above = 0;
+    for (SongInterface song : b.topK(SongAttribute.POPULARITY, 1000, true)) {
+      if (song.getPopularity() > least) {
+        above++;
+      }
+    }
+    assertTrue(above < 50);
+    // the quietest song is at least as quiet as every song in the range
+    int quietest = b.topK(SongAttribute.LOUDNESS, 1, false).get(0).getLoudness();
+    for (SongInterface song : b.topK(SongAttribute.LOUDNESS, 1000, false)) {
+      assertTrue(song.getLoudness() >= quietest);
+    }
+  }
+
+  /** 
+   * Checks that a composed query finds the same songs as testing every song, and merges ranges
+   */
+  @Test
+  public void testQuery() throws IOException {
+    IterableSortedCollection<SongInterface> tree = new IterableRedBlackTree<>();
+    Backend b = new Backend(tree);
+    b.readData("songs.csv");
+    SongQuery query = SongQuery.where(SongQuery.between(SongAttribute.LIVENESS, 10, 40))
+        .and(SongQuery.atLeast(SongAttribute.YEAR, 2015))
+        .and(SongQuery.genreContains("pop"))
+        .and(SongQuery.atMost(SongAttribute.LIVENESS, 30));
+    // the two liveness conditions become one range
+    assertEquals(3, query.getRanges().size() + query.getFilters().size());
+
+    java.util.List<SongInterface> expected = new java.util.ArrayList<>();
+    for (SongInterface song : tree) {
+      if (song.getLiveness() >= 10 && song.getLiveness() <= 30 && song.getYear() >= 2015
+          && song.getGenres().contains("pop")) {
+        expected.add(song);
+      }
+    }
+    assertTrue(expected.size() > 0);
+    assertEquals(expected, b.query(query));
+    assertEquals(0, b.query(query.and(SongQuery.atLeast(SongAttribute.LIVENESS, 31))).size());
+
+    // a backend that also indexes bpm answers a bpm query the same way
+    Backend bpm = new Backend(new IterableRedBlackTree<>(), SongAttribute.YEAR,
+        SongAttribute.BPM);
+    bpm.readData("songs.csv");
+    SongQuery byBpm = SongQuery.where(SongQuery.between(SongAttribute.BPM, 120, 125));
+    assertEquals(Backend.titles(b.query(byBpm)), Backend.titles(bpm.query(byBpm)));
+  }
+
+  /** 
+   * Checks that queries on a shared ConcurrentBackend always see a whole catalog, even while
+   * it is being reloaded, and that sessions keep their own range
+   */
+  @Test
+  public void testConcurrentBackend() throws Exception {
+    ConcurrentBackend shared = new ConcurrentBackend(IterableRedBlackTree::new);
+    shared.readData("songs.csv");
+    java.util.concurrent.CompletableFuture<Void> reloads =
+        java.util.concurrent.CompletableFuture.allOf(shared.reloadAsync("songs.csv"),
+            shared.reloadAsync("songs.csv"));
+
+    java.util.concurrent.ExecutorService pool =
+        java.util.concurrent.Executors.newFixedThreadPool(4);
+    java.util.List<java.util.concurrent.Future<Integer>> sizes = new java.util.ArrayList<>();
+    for (int i = 0; i < 40; i++) {
+      sizes.add(pool.submit(() -> shared.getRange(0, 101, -1).size()));
+    }
+    for (java.util.concurrent.Future<Integer> size : sizes) {
+      assertEquals(600, (int) size.get());
+    }
+    pool.shutdown();
+    reloads.get();
+
+    BackendInterface first = shared.session();
+    BackendInterface second = shared.session();
+    first.getRange(50, 100);
+    second.getRange(0, 10);
+    assertEquals(new Backend(loaded()).getRange(50, 100), first.getRange(50, 100));
+    assertTrue(first.fiveLoudest().size() == 5 && second.filterNewSongs(2019).size() > 0);
+  }
+
+  private static IterableSortedCollection<SongInterface> loaded() throws IOException {
+    IterableSortedCollection<SongInterface> tree = new IterableRedBlackTree<>();
+    new Backend(tree).readData("songs.csv");
+    return tree;
+  }
+
+  /** 
+   * Checks that the columnar table holds the same songs as the tree, with shared dictionaries
+   */
+  @Test
+  public void testSongTable() throws IOException {
+    SongTable table = SongTable.load("songs.csv", Backend.CHARSET);
+    java.util.List<SongInterface> songs = Backend.readSongs("songs.csv");
+    assertEquals(songs.size(), table.size());
+    // far fewer distinct artists than rows
+    assertTrue(table.artistCount() < table.size() / 2);
+
+    SongTable.Cursor cursor = table.cursor();
+    for (int row = 0; row < table.size(); row++) {
+      SongInterface song = songs.get(row);
+      cursor.moveTo(row);
+      assertEquals(song.getTitle(), cursor.getTitle());
+      assertEquals(song.getArtist(), cursor.getArtist());
+      assertEquals(song.getGenres(), cursor.getGenres());
+      for (SongAttribute attribute : SongAttribute.values()) {
+        assertEquals(attribute.of(song), attribute.of(cursor));
+        assertEquals(attribute.of(song), table.column(attribute)[row]);
+      }
+      assertEquals(0, table.get(row).compareTo(song));
+    }
+  }
+
+  /** 
+   * Checks that the column scan kernels select the same songs as the tree-based backend
+   */
+  @Test
+  public void testScanEngine() throws IOException {
+    Backend b = new Backend(new IterableRedBlackTree<>());
+    b.readData("songs.csv");
+    SongScanEngine engine = new SongScanEngine(
+        SongTable.load("songs.csv", Backend.CHARSET));
+
+    SongQuery[] queries = {
+        SongQuery.where(SongQuery.between(SongAttribute.LIVENESS, 5, 9))
+            .and(SongQuery.atLeast(SongAttribute.YEAR, 2015)),
+        SongQuery.where(SongQuery.atMost(SongAttribute.VALENCE, 40))
+            .and(SongQuery.atLeast(SongAttribute.POPULARITY, 70))
+            .and(SongQuery.genreContains("pop")),
+        SongQuery.all(),
+        SongQuery.where(SongQuery.between(SongAttribute.LOUDNESS, 1, 0))};
+    for (SongQuery query : queries) {
+      java.util.List<String> expected = new java.util.ArrayList<>();
+      for (SongInterface song : b.query(query)) {
+        expected.add(song.getTitle());
+      }
+      java.util.List<String> actual = new java.util.ArrayList<>();
+      for (SongInterface song : engine.select(query)) {
+        actual.add(song.getTitle());
+      }
+      assertEquals(expected, actual);
+      assertEquals(expected.size(), engine.count(query));
+    }
+
+    // a backend with column scans answers getRange() and filterNewSongs() the same way, also
+    // after more songs are loaded
+    Backend columns = new Backend(new IterableRedBlackTree<>());
+    columns.readData("songs.csv");
+    columns.setColumnScans(true);
+    assertEquals(b.getRange(10, 30), columns.getRange(10, 30));
+    assertEquals(b.filterNewSongs(2016), columns.filterNewSongs(2016));
+    assertEquals(b.fiveLoudest(), columns.fiveLoudest());
+    b.readData("songs.csv");
+    columns.readData("songs.csv");
+    assertEquals(b.getRange(0, 100), columns.getRange(0, 100));
+  }
+
+  /** 
+   * Checks that a binary catalog round trips and that readData() loads it like the csv file
+   */
+  @Test
+  public void testMappedCatalog() throws IOException {
+    Backend fromCsv = new Backend(new IterableRedBlackTree<>());
+    fromCsv.readData("songs.csv");
+    java.io.File file = java.io.File.createTempFile("songs", ".catalog");
+    file.deleteOnExit();
+    fromCsv.writeCatalog(file.getPath());
+
+    MappedSongCatalog catalog = MappedSongCatalog.open(file.getPath());
+    assertEquals(600, catalog.size());
+    assertTrue(MappedSongCatalog.isCatalog(file.getPath()));
+    assertFalse(MappedSongCatalog.isCatalog("songs.csv"));
+
+    Backend fromCatalog = new Backend(new IterableRedBlackTree<>());
+    fromCatalog.readData(file.getPath());
+    assertEquals(fromCsv.getRange(0, 101), fromCatalog.getRange(0, 101));
+    fromCsv.getRange(10, 30);
+    fromCatalog.getRange(10, 30);
+    assertEquals(fromCsv.filterNewSongs(2016), fromCatalog.filterNewSongs(2016));
+    assertEquals(fromCsv.fiveLoudest(), fromCatalog.fiveLoudest());
+    SongInterface first = catalog.get(0);
+    assertEquals(first.getArtist(), catalog.songs().get(0).getArtist());
+
+    // rows of the same catalog compare like the songs they were written from
+    for (int row = 1; row < catalog.size(); row++) {
+      SongInterface previous = catalog.get(row - 1);
+      SongInterface song = catalog.get(row);
+      Song copy = new Song(song.getTitle(), song.getArtist(), song.getGenres(), song.getYear(),
+          song.getBPM(), song.getEnergy(), song.getDanceability(), song.getLoudness(),
+          song.getLiveness(), song.getValence(), song.getDuration(), song.getAcousticness(),
+          song.getSpeechiness(), song.getPopularity());
+      assertEquals(Integer.signum(previous.compareTo(copy)),
+          Integer.signum(previous.compareTo(song)));
+      assertEquals(0, song.compareTo(catalog.get(row)));
+    }
+
+    // a truncated catalog is rejected when it is opened
+    byte[] bytes = java.nio.file.Files.readAllBytes(file.toPath());
+    java.nio.file.Files.write(file.toPath(), java.util.Arrays.copyOf(bytes, bytes.length / 2));
+    try {
+      MappedSongCatalog.open(file.getPath());
+      assertFalse(true);
+    }
+    catch (IOException e) {
+      assertTrue(true);
+    }
+    file.delete();
+  }
+
+  @Test
+  public void testSnapshot() throws IOException {
+    java.io.File csv = java.io.File.createTempFile("songs", ".csv");
+    java.io.File snapshot = new java.io.File(csv.getPath() + ".snapshot");
+    csv.deleteOnExit();
+    snapshot.deleteOnExit();
+    java.nio.file.Files.copy(java.nio.file.Path.of("songs.csv"), csv.toPath(),
+        java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+
+    // the first load parses the csv file and writes the snapshot
+    Backend cold = new Backend(new IterableRedBlackTree<>());
+    cold.setSnapshots(true);
+    cold.readData(csv.getPath());
+    assertTrue(snapshot.isFile());
+
+    // the second one restores the same tree and indexes from it
+    IndexedSongStore restored = new IndexedSongStore(new IterableRedBlackTree<>(),
+        SongAttribute.YEAR, SongAttribute.LOUDNESS, SongAttribute.VALENCE);
+    assertTrue(SongSnapshot.restore(restored, csv.getPath(), snapshot.getPath()));
+    assertEquals(600, restored.size());
+    Backend warm = new Backend(new IterableRedBlackTree<>());
+    warm.setSnapshots(true);
+    warm.readData(csv.getPath());
+    assertEquals(cold.getRange(0, 101), warm.getRange(0, 101));
+    cold.getRange(10, 30);
+    warm.getRange(10, 30);
+    assertEquals(cold.filterNewSongs(2016), warm.filterNewSongs(2016));
+    assertEquals(cold.fiveLoudest(), warm.fiveLoudest());
+    SongQuery query = SongQuery.where(SongQuery.between(SongAttribute.VALENCE, 20, 40));
+    List<String> expected = new ArrayList<>();
+    for (SongInterface song : cold.query(query))
+      expected.add(song.getTitle());
+    List<String> actual = new ArrayList<>();
+    for (SongInterface song : restored.select(query))
+      actual.add(song.getTitle());
+    assertEquals(expected, actual);
+
+    // a newer copy with the same contents is still up to date, a changed file is stale
+    csv.setLastModified(csv.lastModified() - 60_000);
+    assertTrue(SongSnapshot.restore(restored, csv.getPath(), snapshot.getPath()));
+    java.nio.file.Files.write(csv.toPath(), new byte[] {'\n'},
+        java.nio.file.StandardOpenOption.APPEND);
+    assertFalse(SongSnapshot.restore(restored, csv.getPath(), snapshot.getPath()));
+    assertEquals(600, restored.size());
+
+    // a corrupt snapshot falls back to the csv file
+    java.nio.file.Files.write(snapshot.toPath(), java.util.Arrays.copyOf(
+        java.nio.file.Files.readAllBytes(snapshot.toPath()), 100));
+    Backend fallback = new Backend(new IterableRedBlackTree<>());
+    fallback.readData(csv.getPath(), snapshot.getPath());
+    assertEquals(600, fallback.getRange(0, 101).size());
+
+    // a snapshot that cannot be written does not fail the load
+    Backend unsaved = new Backend(new IterableRedBlackTree<>());
+    unsaved.readData(csv.getPath(), new java.io.File(csv.getPath() + ".missing",
+        "songs.snapshot").getPath());
+    assertEquals(600, unsaved.getRange(0, 101).size());
+    csv.delete();
+    snapshot.delete();
+  }
+
+  @Test
+  public void testRefreshData() throws IOException {
+    java.io.File csv = java.io.File.createTempFile("songs", ".csv");
+    csv.deleteOnExit();
+    List<String> lines = java.nio.file.Files.readAllLines(java.nio.file.Path.of("songs.csv"),
+        Backend.CHARSET);
+    java.nio.file.Files.write(csv.toPath(), lines, Backend.CHARSET);
+
+    Backend backend = new Backend(new IterableRedBlackTree<>());
+    backend.readData(csv.getPath());
+    // refreshing with the same file changes nothing, unlike reading it again
+    assertTrue(backend.refreshData(csv.getPath()).isEmpty());
+    assertEquals(600, backend.getRange(0, 101).size());
+
+    // drop the last song, add a new one and change the liveness of the first one
+    String removed = lines.remove(lines.size() - 1);
+    lines.add("New Song,New Artist,pop,2020,120,50,50,-5,100,50,200,10,5,90");
+    assertEquals("\"Hey, Soul Sister\",Train,neo mellow,2010,97,89,67,-4,8,80,217,19,4,83",
+        lines.get(1));
+    lines.set(1, "\"Hey, Soul Sister\",Train,neo mellow,2010,97,89,67,-4,99,80,217,19,4,83");
+    java.nio.file.Files.write(csv.toPath(), lines, Backend.CHARSET);
+
+    SongDiff diff = backend.refreshData(csv.getPath());
+    assertEquals(1, diff.getInserted().size());
+    assertEquals(1, diff.getUpdated().size());
+    assertEquals(1, diff.getDeleted().size());
+    assertEquals(99, diff.getUpdated().get(0).getLiveness());
+    assertTrue(removed.startsWith(diff.getDeleted().get(0).getTitle()));
+    assertEquals(600, backend.getRange(0, 101).size());
+    assertEquals(List.of("New Song"), backend.getRange(100, 101));
+    assertTrue(backend.getRange(99, 100).contains(diff.getUpdated().get(0).getTitle()));
+
+    // the indexes are kept up to date too
+    Backend fresh = new Backend(new IterableRedBlackTree<>());
+    fresh.readData(csv.getPath());
+    SongQuery query = SongQuery.where(SongQuery.between(SongAttribute.YEAR, 2010, 2012))
+        .and(SongQuery.atLeast(SongAttribute.LIVENESS, 50));
+    assertEquals(fresh.query(query).size(), backend.query(query).size());
+    assertTrue(backend.refreshData(csv.getPath()).isEmpty());
+    csv.delete();
+  }
+
+  @Test
+  public void testCountRange() throws IOException {
+    Backend backend = new Backend(new IterableRedBlackTree<>());
+    backend.readData("songs.csv");
+    for (int[] range : new int[][] {{0, 101}, {10, 30}, {50, 51}, {30, 10}, {-5, 200}}) {
+      assertEquals(backend.getRange(range[0], range[1]).size(),
+          backend.countRange(range[0], range[1]));
+    }
+    backend.getRange(10, 30);
+    int filtered = backend.filterNewSongs(2016).size();
+    assertEquals(filtered, backend.countRange(10, 30));
+    // counting does not move the saved range
+    backend.countRange(0, 5);
+    assertEquals(filtered, backend.filterNewSongs(2016).size());
+  }
+
+  @Test
+  public void testPagination() throws IOException {
+    Backend backend = new Backend(new IterableRedBlackTree<>());
+    backend.readData("songs.csv");
+    // songs.csv has songs with the same liveness and title, which pages must not skip or repeat
+    for (int pageSize : new int[] {1, 2, 7, 50, 1000}) {
+      List<String> paged = new ArrayList<>();
+      String token = null;
+      do {
+        SongPage page = backend.getRange(0, 101, token, pageSize);
+        assertTrue(page.getTitles().size() <= pageSize);
+        paged.addAll(page.getTitles());
+        token = page.getNextPageToken();
+      } while (token != null);
+      assertEquals(backend.getRange(0, 101), paged);
+    }
+
+    backend.getRange(10, 30);
+    List<String> filtered = backend.filterNewSongs(2016);
+    SongPage first = backend.getRange(10, 30, null, 10);
+    SongPage second = backend.getRange(10, 30, first.getNextPageToken(), 10);
+    assertEquals(filtered.subList(0, 10), first.getTitles());
+    assertEquals(filtered.subList(10, 20), second.getTitles());
+    assertFalse(backend.getRange(50, 50, null, 10).hasNextPage());
+
+    List<String> streamed = new ArrayList<>();
+    backend.streamRange(10, 30).forEach(song -> streamed.add(song.getTitle()));
+    assertEquals(filtered, streamed);
+    assertEquals(3, backend.stream(SongQuery.all()).limit(3).count());
+
+    // songs with the token's key that are removed between two pages do not make the next page
+    // skip the songs after them
+    IndexedSongStore store = new IndexedSongStore(new IterableRedBlackTree<>(),
+        SongAttribute.YEAR);
+    SongInterface tied = new Song("b", "Artist", "pop", 2015, 100, 50, 50, -5, 5, 50, 200, 10,
+        5, 60);
+    SongInterface otherTie = new Song("b", "Other", "pop", 2015, 100, 50, 50, -5, 5, 50, 200, 10,
+        5, 60);
+    store.insert(new Song("a", "Artist", "pop", 2015, 100, 50, 50, -5, 5, 50, 200, 10, 5, 60));
+    store.insert(tied);
+    store.insert(otherTie);
+    store.insert(new Song("c", "Artist", "pop", 2015, 100, 50, 50, -5, 5, 50, 200, 10, 5, 60));
+    store.insert(new Song("d", "Artist", "pop", 2015, 100, 50, 50, -5, 6, 50, 200, 10, 5, 60));
+    SongPage page = SongPage.read(store, SongQuery.all(), null, 2);
+    assertEquals(List.of("a", "b"), page.getTitles());
+    assertTrue(store.remove(tied));
+    assertTrue(store.remove(otherTie));
+    page = SongPage.read(store, SongQuery.all(), page.getNextPageToken(), 2);
+    assertEquals(List.of("c", "d"), page.getTitles());
+    assertFalse(page.hasNextPage());
+  }
+
+  @Test
+  public void testResultCache() throws IOException {
+    Backend backend = new Backend(new IterableRedBlackTree<>());
+    backend.readData("songs.csv");
+    List<String> range = backend.getRange(10, 30);
+    assertEquals(0, backend.getCacheHits());
+    assertEquals(1, backend.getCacheMisses());
+
+    // the same query, and the same year filter and top five, come from the cache
+    assertTrue(range == backend.getRange(10, 30));
+    List<String> filtered = backend.filterNewSongs(2016);
+    List<String> loudest = backend.fiveLoudest();
+    assertTrue(filtered == backend.filterNewSongs(2016));
+    assertTrue(loudest == backend.fiveLoudest());
+    assertEquals(backend.getRange(5, 5), backend.getRange(30, 10));
+    assertEquals(4, backend.getCacheHits());
+    assertEquals(4, backend.getCacheMisses());
+
+    // loading more songs drops every cached result
+    backend.readData("songs.csv");
+    assertEquals(2 * filtered.size(), backend.getRange(10, 30).size());
+    assertEquals(5, backend.getCacheMisses());
+
+    // with caching off every call runs its query, and nothing is counted
+    backend.setCaching(false);
+    assertTrue(backend.getRange(10, 30) != backend.getRange(10, 30));
+    assertEquals(4, backend.getCacheHits());
+    assertEquals(5, backend.getCacheMisses());
+
+    ResultCache<Integer, String> cache = new ResultCache<>(2);
+    cache.put(1, "one", 0);
+    cache.put(2, "two", 0);
+    assertEquals("one", cache.get(1, 0));
+    // 2 is now the least recently used entry
+    cache.put(3, "three", 0);
+    assertEquals(null, cache.get(2, 0));
+    assertEquals("one", cache.get(1, 0));
+    assertEquals(null, cache.get(1, 1));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testParallelSelect() {
+    java.util.Random random = new java.util.Random(20);
+    List<SongInterface> songs = new ArrayList<>();
+    for (int i = 0; i < 2 * IndexedSongStore.PARALLEL_THRESHOLD; i++)
+      songs.add(new Song("Song " + i, "Artist", "pop", 2010 + random.nextInt(10), 100, 50, 50,
+          -5, random.nextInt(101), 50, 200, 10, 5, random.nextInt(101)));
+    IndexedSongStore store = new IndexedSongStore(new IterableRedBlackTree<>(),
+        SongAttribute.YEAR);
+    store.bulkLoad(songs);
+
+    // wide enough to be filtered in parallel (on a machine with several cores), and compared
+    // with a sequential scan
+    SongQuery query = SongQuery.where(SongQuery.between(SongAttribute.LIVENESS, 0, 80))
+        .and(SongQuery.atLeast(SongAttribute.POPULARITY, 30));
+    List<SongInterface> sequential = new ArrayList<>();
+    store.scan(query, sequential::add);
+    List<SongInterface> parallel = store.select(query);
+    assertEquals(sequential.size(), parallel.size());
+    for (int i = 0; i < parallel.size(); i++)
+      assertTrue(sequential.get(i) == parallel.get(i));
+    assertEquals(songs.size(), store.select(SongQuery.all()).size());
+  }
+
+  @Test
+  public void testMetrics() throws IOException {
+    Metrics.setEnabled(true);
+    Metrics.reset();
+    try {
+      IterableRedBlackTree<SongInterface> tree = new IterableRedBlackTree<>();
+      Backend backend = new Backend(tree);
+      backend.readData("songs.csv");
+      backend.getRange(10, 30);
+      backend.getRange(10, 30);
+      backend.fiveLoudest();
+
+      Map<String, Number> stats = Metrics.snapshot();
+      assertEquals((long) tree.size(), stats.get("load.rows"));
+      assertEquals((long) tree.size(), stats.get("tree.size"));
+      assertEquals((long) tree.height(), stats.get("tree.height"));
+      assertEquals(1L, stats.get("backend.readData.count"));
+      assertEquals(2L, stats.get("backend.getRange.count"));
+      assertEquals(1L, stats.get("backend.fiveLoudest.count"));
+      assertTrue(stats.get("iterator.created").longValue() > 0);
+      assertTrue(Metrics.format().contains("backend.getRange.p99Nanos: "));
+
+      // nothing is counted while metrics are off
+      Metrics.setEnabled(false);
+      long inserts = Metrics.TREE_INSERTS.get();
+      tree.insert(new Song("Quiet", "Artist", "pop", 2015, 100, 50, 50, -5, 20, 50, 200, 10, 5, 50));
+      assertEquals(inserts, Metrics.TREE_INSERTS.get());
+      Metrics.setEnabled(true);
+      tree.insert(new Song("Loud", "Artist", "pop", 2015, 100, 50, 50, -5, 20, 50, 200, 10, 5, 50));
+      assertEquals(inserts + 1, Metrics.TREE_INSERTS.get());
+    } finally {
+      Metrics.setEnabled(false);
+      Metrics.reset();
+    }
+
+    // percentiles are within the histogram's precision of the recorded values
+    LatencyHistogram histogram = new LatencyHistogram();
+    for (int i = 1; i <= 1000; i++)
+      histogram.record(i * 1000L);
+    assertEquals(1000, histogram.count());
+    assertEquals(1_000_000, histogram.max());
+    long median = histogram.percentile(50);
+    assertTrue(median >= 500_000 && median <= 500_000 * 9 / 8);
+    assertEquals(1_000_000, histogram.percentile(100));
+    long lowest = histogram.percentile(0);
+    assertTrue(lowest >= 1000 && lowest <= 1000 * 9 / 8);
+  }
+
+  @Test
+  public void testArrayTree() throws IOException {
+    Backend objects = new Backend(new IterableRedBlackTree<>());
+    Backend arrays = new Backend(new ArrayRedBlackTree<>());
+    objects.readData("songs.csv");
+    arrays.readData("songs.csv");
+    assertEquals(objects.getRange(10, 30), arrays.getRange(10, 30));
+    assertEquals(objects.filterNewSongs(2016), arrays.filterNewSongs(2016));
+    assertEquals(objects.fiveLoudest(), arrays.fiveLoudest());
+    assertEquals(objects.countRange(0, 50), arrays.countRange(0, 50));
+  }
+
+  @Test
+  public void testBPlusTree() throws IOException {
+    Backend objects = new Backend(new IterableRedBlackTree<>());
+    Backend leaves = new Backend(new BPlusTree<>(8));
+    objects.readData("songs.csv");
+    leaves.readData("songs.csv");
+    assertEquals(objects.getRange(10, 30), leaves.getRange(10, 30));
+    assertEquals(objects.filterNewSongs(2016), leaves.filterNewSongs(2016));
+    assertEquals(objects.fiveLoudest(), leaves.fiveLoudest());
+    assertEquals(objects.countRange(0, 50), leaves.countRange(0, 50));
+
+    // a second load inserts into the existing leaves, splitting them
+    objects.readData("songs.csv");
+    leaves.readData("songs.csv");
+    assertEquals(objects.getRange(0, 100), leaves.getRange(0, 100));
+  }
+
+  @Test
+  public void testBucketedTree() throws IOException {
+    Backend objects = new Backend(new IterableRedBlackTree<>());
+    BucketedTree<SongInterface> tree = new BucketedTree<>(SongInterface::getLiveness);
+    Backend buckets = new Backend(tree);
+    objects.readData("songs.csv");
+    buckets.readData("songs.csv");
+    assertTrue(tree.bucketCount() <= 101);
+    assertEquals(objects.getRange(10, 30), buckets.getRange(10, 30));
+    assertEquals(objects.filterNewSongs(2016), buckets.filterNewSongs(2016));
+    assertEquals(objects.fiveLoudest(), buckets.fiveLoudest());
+    assertEquals(objects.countRange(0, 50), buckets.countRange(0, 50));
+
+    // a second load inserts into the existing buckets
+    objects.readData("songs.csv");
+    buckets.readData("songs.csv");
+    assertEquals(objects.getRange(0, 100), buckets.getRange(0, 100));
+  }
+
+  @Test
+  public void testNonAsciiTitles() throws IOException {
+    java.io.File csv = java.io.File.createTempFile("songs", ".csv");
+    csv.deleteOnExit();
+    java.nio.file.Files.write(csv.toPath(), List.of(
+        "title,artist,top genre,year,bpm,nrgy,dnce,dB,live,val,dur,acous,spch,pop",
+        "Caf\u00e9 del Mar,Beyonc\u00e9,pop,2015,120,50,50,-5,40,50,200,10,5,90"), Backend.CHARSET);
+
+    Backend backend = new Backend(new IterableRedBlackTree<>());
+    backend.readData(csv.getPath());
+    assertEquals(List.of("Caf\u00e9 del Mar"), backend.getRange(0, 100));
+    Backend parallel = new Backend(new IterableRedBlackTree<>());
+    parallel.readDataParallel(csv.getPath());
+    assertEquals(List.of("Caf\u00e9 del Mar"), parallel.getRange(0, 100));
+    assertEquals("Beyonc\u00e9", SongTable.load(csv.getPath(), Backend.CHARSET).getArtist(0));
+  }
+}
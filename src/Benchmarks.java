@@ -0,0 +1,350 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Micro-benchmarks for loading, inserting, removing, range scans and top-K queries. Each benchmark is run
+ * for a number of warmup iterations (to let the JIT compile the hot paths) and then timed over a
+ * number of measured iterations. Results are printed as a table and can be written out as JSON
+ * so that runs before and after a change can be compared.
+ *
+ * Usage: java Benchmarks [--rows 1000,10000,100000] [--warmup 3] [--iterations 5]
+ *        [--json results.json] [--only name-prefix]
+ *
+ * Remove and replace benchmarks touch at most 10000 keys per run, so their ns/op across --rows
+ * 1000000,4000000 shows how they scale with the size of the tree.
+ */
+public class Benchmarks {
+  // values returned by benchmarks are folded into this so the JIT cannot drop the work
+  private static long sink;
+
+  /**
+   * A single timed unit of work. Returns something derived from its result.
+   */
+  private interface Operation {
+    long run() throws Exception;
+  }
+
+  private final int warmup;
+  private final int iterations;
+  private final String only;
+  private final List<String> json = new ArrayList<>();
+
+  public Benchmarks(int warmup, int iterations, String only) {
+    this.warmup = warmup;
+    this.iterations = iterations;
+    this.only = only;
+  }
+
+  public static void main(String[] args) throws Exception {
+    int[] rows = {1_000, 10_000, 100_000};
+    int warmup = 3;
+    int iterations = 5;
+    String jsonFile = null;
+    String only = "";
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      switch (args[i]) {
+        case "--rows" -> rows = Arrays.stream(args[i + 1].split(",")).mapToInt(Integer::parseInt)
+            .toArray();
+        case "--warmup" -> warmup = Integer.parseInt(args[i + 1]);
+        case "--iterations" -> iterations = Integer.parseInt(args[i + 1]);
+        case "--json" -> jsonFile = args[i + 1];
+        case "--only" -> only = args[i + 1];
+        default -> throw new IllegalArgumentException("Unknown option " + args[i]);
+      }
+    }
+
+    Benchmarks benchmarks = new Benchmarks(warmup, iterations, only);
+    System.out.printf("%-32s %-12s %14s %14s %14s%n", "benchmark", "param", "ns/op",
+        "min ns/op", "ops/s");
+    for (int n : rows)
+      benchmarks.runAll(n);
+
+    if (jsonFile != null)
+      benchmarks.writeJson(jsonFile);
+    if (sink == 42)
+      System.out.println(); // keeps sink observable
+  }
+
+  /**
+   * Runs every benchmark against a catalog (or key set) of n rows
+   */
+  public void runAll(int n) throws Exception {
+    String param = Integer.toString(n);
+    File csv = File.createTempFile("songs-" + n + "-", ".csv");
+    csv.deleteOnExit();
+    writeSyntheticCsv(csv, n, new Random(n));
+
+    measure("load.readData", param, n, () -> {
+      Backend backend = new Backend(new IterableRedBlackTree<>());
+      backend.readData(csv.getPath());
+      return backend.getRange(0, 1).size();
+    });
+    measure("load.readData.bucketed", param, n, () -> {
+      Backend backend = new Backend(new BucketedTree<>(SongInterface::getLiveness));
+      backend.readData(csv.getPath());
+      return backend.getRange(0, 1).size();
+    });
+    // songs inserted one at a time, which compares titles whenever two songs have the same liveness
+    List<Song> songs = new MappedSongLoader(csv.getPath(), Backend.CHARSET, 1).load();
+    measure("insert.songs.rbt", param, n, () -> {
+      IterableRedBlackTree<SongInterface> tree = new IterableRedBlackTree<>();
+      for (Song song : songs)
+        tree.insert(song);
+      return tree.size();
+    });
+    measure("insert.songs.bucketed", param, n, () -> {
+      BucketedTree<SongInterface> tree = new BucketedTree<>(SongInterface::getLiveness);
+      for (Song song : songs)
+        tree.insert(song);
+      return tree.size();
+    });
+    measure("load.readDataParallel", param, n, () -> {
+      Backend backend = new Backend(new IterableRedBlackTree<>());
+      backend.readDataParallel(csv.getPath());
+      return backend.getRange(0, 1).size();
+    });
+
+    int[] random = new Random(n).ints(n).toArray();
+    int[] sorted = random.clone();
+    Arrays.sort(sorted);
+    int[] duplicates = new Random(n).ints(n, 0, 100).toArray();
+    measure("insert.random", param, n, () -> insertAll(random));
+    measure("insert.sorted", param, n, () -> insertAll(sorted));
+    measure("insert.duplicates", param, n, () -> insertAll(duplicates));
+    measure("insert.random.array", param, n, () -> {
+      ArrayRedBlackTree<Integer> tree = new ArrayRedBlackTree<>();
+      for (int key : random)
+        tree.insert(key);
+      return tree.size();
+    });
+    measure("insert.random.bplus", param, n, () -> {
+      BPlusTree<Integer> tree = new BPlusTree<>();
+      for (int key : random)
+        tree.insert(key);
+      return tree.size();
+    });
+
+    // each run undoes its own changes, so the tree stays at n keys; ops are timed in pairs
+    IterableRedBlackTree<Integer> tree = new IterableRedBlackTree<>();
+    Integer[] even = new Integer[n];
+    for (int i = 0; i < n; i++)
+      even[i] = 2 * i;
+    tree.fromSorted(even);
+    int changes = Math.min(n, 10_000);
+    int[] targets = new Random(n).ints(changes, 0, n).map(i -> 2 * i).distinct().toArray();
+    int[] moves = new Random(-n).ints(targets.length, 0, n).map(i -> 2 * i + 1).toArray();
+    measure("remove+insert", param, targets.length, () -> {
+      for (int key : targets)
+        tree.remove(key);
+      for (int key : targets)
+        tree.insert(key);
+      return tree.size();
+    });
+    measure("pollFirst+insert", param, changes, () -> {
+      int[] polled = new int[changes];
+      for (int i = 0; i < changes; i++)
+        polled[i] = tree.pollFirst();
+      for (int key : polled)
+        tree.insert(key);
+      return tree.size();
+    });
+    measure("replace.inPlace", param, targets.length, () -> {
+      for (int key : targets)
+        tree.replace(key, key + 1);
+      for (int key : targets)
+        tree.replace(key + 1, key);
+      return tree.size();
+    });
+    measure("replace.move", param, targets.length, () -> {
+      for (int i = 0; i < targets.length; i++)
+        tree.replace(targets[i], moves[i]);
+      for (int i = 0; i < targets.length; i++)
+        tree.replace(moves[i], targets[i]);
+      return tree.size();
+    });
+
+    measure("scan.iterator", param, n, () -> {
+      long total = 0;
+      for (int key : tree)
+        total += key;
+      return total;
+    });
+    measure("scan.toInOrderString", param, n, () -> tree.toInOrderString().length());
+    ArrayRedBlackTree<Integer> arrayTree = new ArrayRedBlackTree<>();
+    arrayTree.fromSorted(even);
+    measure("remove+insert.array", param, targets.length, () -> {
+      for (int key : targets)
+        arrayTree.remove(key);
+      for (int key : targets)
+        arrayTree.insert(key);
+      return arrayTree.size();
+    });
+    measure("scan.iterator.array", param, n, () -> {
+      long total = 0;
+      for (int key : arrayTree)
+        total += key;
+      return total;
+    });
+    BPlusTree<Integer> bplusTree = new BPlusTree<>();
+    bplusTree.fromSorted(even);
+    measure("remove+insert.bplus", param, targets.length, () -> {
+      for (int key : targets)
+        bplusTree.remove(key);
+      for (int key : targets)
+        bplusTree.insert(key);
+      return bplusTree.size();
+    });
+    measure("scan.iterator.bplus", param, n, () -> {
+      long total = 0;
+      for (int key : bplusTree)
+        total += key;
+      return total;
+    });
+
+    Backend backend = new Backend(new IterableRedBlackTree<>());
+    backend.readData(csv.getPath());
+    // the result cache would answer every repetition after the first, so the query rows run
+    // with it off and getRange.cached reports the cost of a hit
+    backend.setCaching(false);
+    // liveness is uniform over 0-100, so the width of the range is its selectivity in percent
+    for (int percent : new int[] {1, 10, 50, 100}) {
+      measure("getRange." + percent + "%", param, 1, () -> backend.getRange(0, percent).size());
+    }
+    // the same queries answered by scanning a SongTable copy of the tree
+    Backend columnBackend = new Backend(new IterableRedBlackTree<>());
+    columnBackend.readData(csv.getPath());
+    columnBackend.setCaching(false);
+    columnBackend.setColumnScans(true);
+    for (int percent : new int[] {1, 10, 50, 100}) {
+      measure("getRange.columns." + percent + "%", param, 1,
+          () -> columnBackend.getRange(0, percent).size());
+    }
+    backend.setCaching(true);
+    backend.getRange(0, 50);
+    measure("getRange.cached", param, 1, () -> backend.getRange(0, 50).size());
+    backend.setCaching(false);
+    // the same range scans, uncached, over a red-black tree and a B+-tree
+    Backend bplusBackend = new Backend(new BPlusTree<>());
+    bplusBackend.readData(csv.getPath());
+    Backend bucketedBackend = new Backend(new BucketedTree<>(SongInterface::getLiveness));
+    bucketedBackend.readData(csv.getPath());
+    for (int percent : new int[] {1, 10, 50}) {
+      measure("rangeScan.rbt." + percent + "%", param, 1,
+          () -> backend.streamRange(0, percent).count());
+      measure("rangeScan.bplus." + percent + "%", param, 1,
+          () -> bplusBackend.streamRange(0, percent).count());
+      measure("rangeScan.bucketed." + percent + "%", param, 1,
+          () -> bucketedBackend.streamRange(0, percent).count());
+    }
+    // a filter on attributes without an index: object scan through the backend versus column
+    // kernels over a SongTable
+    SongQuery unindexed = SongQuery.where(SongQuery.atMost(SongAttribute.VALENCE, 40))
+        .and(SongQuery.atLeast(SongAttribute.POPULARITY, 70));
+    SongScanEngine engine = new SongScanEngine(SongTable.load(csv.getPath(),
+        Backend.CHARSET));
+    measure("scan.objects", param, n, () -> backend.query(unindexed).size());
+    measure("scan.columns", param, n, () -> engine.count(unindexed));
+
+    backend.getRange(0, 50);
+    measure("fiveLoudest", param, 1, () -> backend.fiveLoudest().size());
+    measure("topK.100", param, 1,
+        () -> backend.topK(SongAttribute.LOUDNESS, 100, true).size());
+
+    csv.delete();
+  }
+
+  private static long insertAll(int[] keys) {
+    IterableRedBlackTree<Integer> tree = new IterableRedBlackTree<>();
+    for (int key : keys)
+      tree.insert(key);
+    return tree.size();
+  }
+
+  /**
+   * Times op, printing and recording the result
+   * @param name the name of the benchmark
+   * @param param the parameter it was run with, e.g. the number of rows
+   * @param opsPerRun the number of operations one call to op performs, used to report per
+   *     operation times (e.g. the number of rows for a load)
+   */
+  private void measure(String name, String param, int opsPerRun, Operation op)
+      throws Exception {
+    if (!name.startsWith(only))
+      return;
+    for (int i = 0; i < warmup; i++)
+      sink += op.run();
+
+    long total = 0;
+    long min = Long.MAX_VALUE;
+    long max = 0;
+    for (int i = 0; i < iterations; i++) {
+      long start = System.nanoTime();
+      sink += op.run();
+      long elapsed = System.nanoTime() - start;
+      total += elapsed;
+      min = Math.min(min, elapsed);
+      max = Math.max(max, elapsed);
+    }
+    double mean = (double) total / iterations / opsPerRun;
+    double best = (double) min / opsPerRun;
+    double opsPerSecond = 1e9 / mean;
+    System.out.printf("%-32s %-12s %14.1f %14.1f %14.0f%n", name, param, mean, best,
+        opsPerSecond);
+    json.add(String.format(
+        "{\"benchmark\": \"%s\", \"param\": \"%s\", \"opsPerIteration\": %d, "
+            + "\"iterations\": %d, \"nsPerOp\": {\"mean\": %.1f, \"min\": %.1f, \"max\": %.1f}, "
+            + "\"opsPerSecond\": %.1f}",
+        name, param, opsPerRun, iterations, mean, best, (double) max / opsPerRun, opsPerSecond));
+  }
+
+  private void writeJson(String filename) throws IOException {
+    try (PrintStream out = new PrintStream(filename, StandardCharsets.UTF_8)) {
+      out.println("[");
+      for (int i = 0; i < json.size(); i++)
+        out.println("  " + json.get(i) + (i + 1 < json.size() ? "," : ""));
+      out.println("]");
+    }
+  }
+
+  /**
+   * Writes a songs.csv style file with n random songs. Every tenth title has a comma in it, and
+   * so is quoted, to exercise the quote handling of the loaders.
+   */
+  static void writeSyntheticCsv(File file, int n, Random random) throws IOException {
+    try (BufferedWriter out = Files.newBufferedWriter(file.toPath(),
+        Backend.CHARSET)) {
+      out.write("title,artist,top genre,year,bpm,nrgy,dnce,dB,live,val,dur,acous,spch,pop\n");
+      StringBuilder line = new StringBuilder();
+      for (int i = 0; i < n; i++) {
+        line.setLength(0);
+        if (i % 10 == 0)
+          line.append("\"Song, ").append(i).append('"');
+        else
+          line.append("Song ").append(i);
+        line.append(",Artist ").append(random.nextInt(500))
+            .append(",genre ").append(random.nextInt(20))
+            .append(',').append(2010 + random.nextInt(10))
+            .append(',').append(60 + random.nextInt(140))
+            .append(',').append(random.nextInt(101))
+            .append(',').append(random.nextInt(101))
+            .append(',').append(-random.nextInt(20))
+            .append(',').append(random.nextInt(100))
+            .append(',').append(random.nextInt(101))
+            .append(',').append(120 + random.nextInt(280))
+            .append(',').append(random.nextInt(101))
+            .append(',').append(random.nextInt(60))
+            .append(',').append(random.nextInt(101))
+            .append('\n');
+        out.append(line);
+      }
+    }
+  }
+}
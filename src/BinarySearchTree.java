@@ -1,5 +1,5 @@
+import java.util.Arrays;
 import java.util.LinkedList;
-import java.util.Stack;
 
 
 /**
@@ -27,6 +27,9 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
         // node type's data field.
         @SuppressWarnings("unchecked")
         public Node<T>[] down = (Node<T>[])new Node[2];
+        // the number of nodes in the subtree rooted at this node, kept up to date by every
+        // method that links or unlinks nodes, so that values can be found by their position
+        public int subtreeSize = 1;
         public Node(T data) { this.data = data; }
         
         /**
@@ -85,6 +88,7 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
                         current.down[0] = newNode;
                         newNode.up = current;
                         this.size++;
+                        adjustSubtreeSizes(current, 1);
                         return true;
                     } else {
                         // no empty space, keep moving down the tree
@@ -97,6 +101,7 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
                         current.down[1] = newNode;
                         newNode.up = current;
                         this.size++;
+                        adjustSubtreeSizes(current, 1);
                         return true;
                     } else {
                         // no empty space, keep moving down the tree
@@ -124,6 +129,7 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
     protected void rotate(Node<T> child, Node<T> parent) throws IllegalArgumentException {
         if (!child.up.equals(parent))
             throw new IllegalArgumentException("Child param is not the child of the parent param");
+        Metrics.TREE_ROTATIONS.increment();
 
         Node<T> grandparent = parent.up;
         Node<T> temp;
@@ -156,12 +162,263 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
 
         child.up = parent.up;
         parent.up = child;
+
+        // Only the two rotated nodes have different subtrees now
+        parent.subtreeSize = subtreeSize(parent.down[0]) + subtreeSize(parent.down[1]) + 1;
+        child.subtreeSize = subtreeSize(child.down[0]) + subtreeSize(child.down[1]) + 1;
 	
 	// Updates the root if necessary
         if (root == parent)
             root = child;
     }
 
+    /**
+     * Removes a data value from the tree.
+     * @param data the value to remove
+     * @return true if a node holding the value was removed, false if the value was not in the tree
+     * @throws NullPointerException when the provided data argument is null
+     */
+    public boolean remove(T data) throws NullPointerException {
+        if (data == null)
+            throw new NullPointerException("This tree cannot store null references.");
+        Node<T> node = this.findNodeToRemove(data);
+        if (node == null)
+            return false;
+        this.removeNode(node);
+        return true;
+    }
+
+    /**
+     * Removes the smallest value from the tree.
+     * @return the value that was removed, or null if the tree is empty
+     */
+    public T pollFirst() {
+        if (this.root == null)
+            return null;
+        Node<T> first = this.root;
+        while (first.down[0] != null)
+            first = first.down[0];
+        T data = first.data;
+        // the first node has no left child, so it is the node that gets unlinked
+        this.removeNode(first);
+        return data;
+    }
+
+    /**
+     * Removes the largest value from the tree.
+     * @return the value that was removed, or null if the tree is empty
+     */
+    public T pollLast() {
+        if (this.root == null)
+            return null;
+        Node<T> last = this.root;
+        while (last.down[1] != null)
+            last = last.down[1];
+        T data = last.data;
+        this.removeNode(last);
+        return data;
+    }
+
+    /**
+     * Replaces a value in the tree with another one. When the new value sorts between the neighbors of the old one,
+     * it is simply stored in the old value's node; otherwise the old value is removed and the new one inserted.
+     * @param oldData the value to replace
+     * @param newData the value to store instead
+     * @return true if the value was replaced, false if oldData is not in the tree or newData could not be inserted
+     *      (e.g. because it is a duplicate), in which case the tree is left unchanged
+     * @throws NullPointerException when either argument is null
+     */
+    public boolean replace(T oldData, T newData) throws NullPointerException {
+        if (oldData == null || newData == null)
+            throw new NullPointerException("This tree cannot store null references.");
+        Node<T> node = this.findNodeToRemove(oldData);
+        if (node == null)
+            return false;
+
+        Node<T> predecessor = predecessor(node);
+        Node<T> successor = successor(node);
+        if ((predecessor == null || predecessor.data.compareTo(newData) < 0)
+                && (successor == null || successor.data.compareTo(newData) > 0)) {
+            // the tree's order and shape stay the same
+            node.data = newData;
+            return true;
+        }
+
+        this.removeNode(node);
+        if (this.insert(newData))
+            return true;
+        this.insert(oldData);
+        return false;
+    }
+
+    /**
+     * Helper method that returns the node that remove(data) should remove. Trees that hold duplicates can override
+     * this to choose between several nodes holding equal values.
+     * @param data the value to remove
+     * @return a node holding a value equal to data, or null if there is no such node
+     */
+    protected Node<T> findNodeToRemove(T data) {
+        return this.findNode(data);
+    }
+
+    /**
+     * @return the node that comes before node in an in-order traversal, or null if node is the first one
+     */
+    protected static <R> Node<R> predecessor(Node<R> node) {
+        if (node.down[0] != null) {
+            node = node.down[0];
+            while (node.down[1] != null)
+                node = node.down[1];
+            return node;
+        }
+        while (node.up != null && node.up.down[0] == node)
+            node = node.up;
+        return node.up;
+    }
+
+    /**
+     * @return the node that comes after node in an in-order traversal, or null if node is the last one
+     */
+    protected static <R> Node<R> successor(Node<R> node) {
+        if (node.down[1] != null) {
+            node = node.down[1];
+            while (node.down[0] != null)
+                node = node.down[0];
+            return node;
+        }
+        while (node.isRightChild())
+            node = node.up;
+        return node.up;
+    }
+
+    /**
+     * Performs a naive removal of a node from the tree. When the node has two children, its value is replaced by
+     * the value of its in-order successor and the successor's node is removed instead, so the node that is
+     * unlinked always has at most one child, which takes its place. After this removal, no attempt is made to
+     * restructure or balance the tree.
+     * @param node the node holding the value to remove
+     * @return the node that was unlinked from the tree. Its up and down references are left unchanged, so they
+     *      still refer to its former parent and its only child (if any)
+     */
+    protected Node<T> removeNode(Node<T> node) {
+        if (node.down[0] != null && node.down[1] != null) {
+            Node<T> successor = node.down[1];
+            while (successor.down[0] != null)
+                successor = successor.down[0];
+            node.data = successor.data;
+            node = successor;
+        }
+
+        Node<T> child = node.down[0] != null ? node.down[0] : node.down[1];
+        if (child != null)
+            child.up = node.up;
+        if (node.up == null)
+            root = child;
+        else if (node.up.down[0] == node)
+            node.up.down[0] = child;
+        else
+            node.up.down[1] = child;
+        adjustSubtreeSizes(node.up, -1);
+        size--;
+        Metrics.TREE_REMOVES.increment();
+        return node;
+    }
+
+    /**
+     * Adds delta to the subtree size of node and of each of its ancestors
+     * @param node the lowest node whose subtree changed size, or null
+     * @param delta the change in size
+     */
+    protected static void adjustSubtreeSizes(Node<?> node, int delta) {
+        for (; node != null; node = node.up)
+            node.subtreeSize += delta;
+    }
+
+    /**
+     * @return the number of nodes in the subtree rooted at node, or 0 if node is null
+     */
+    protected static int subtreeSize(Node<?> node) {
+        return node == null ? 0 : node.subtreeSize;
+    }
+
+    /**
+     * Counts the values that are smaller than data, in O(log n) time.
+     * @param data a comparable for the data value to count below
+     * @return the number of values in the tree that are smaller than data, which is also the position that data
+     *      has or would have in the tree's in-order sequence
+     * @throws NullPointerException when data is null
+     */
+    public int rank(Comparable<T> data) {
+        if (data == null)
+            throw new NullPointerException("This tree cannot store null references.");
+        return countBelow(data, false);
+    }
+
+    /**
+     * Finds a value by its position in the tree's in-order sequence, in O(log n) time.
+     * @param index the position of the value, starting at 0 for the smallest
+     * @return the value at that position
+     * @throws IndexOutOfBoundsException when index is negative or not less than size()
+     */
+    public T select(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " is not in a tree of size " + size);
+        return this.nodeAt(index).data;
+    }
+
+    /**
+     * Helper method that finds a node by the position of its value in the in-order sequence
+     * @param index the position, which must be at least 0 and less than size()
+     * @return the node at that position
+     */
+    protected Node<T> nodeAt(int index) {
+        Node<T> current = this.root;
+        while (true) {
+            int left = subtreeSize(current.down[0]);
+            if (index < left) {
+                current = current.down[0];
+            } else if (index == left) {
+                return current;
+            } else {
+                index -= left + 1;
+                current = current.down[1];
+            }
+        }
+    }
+
+    /**
+     * Counts the values in a range without visiting them, in O(log n) time.
+     * @param from the smallest value to count, or null to count from the start of the tree
+     * @param to the end of the range, or null to count to the end of the tree
+     * @param toInclusive true to count values equal to to
+     * @return the number of values v with from <= v and v < to (or v <= to when toInclusive)
+     */
+    public int countInRange(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        int start = from == null ? 0 : countBelow(from, false);
+        int end = to == null ? size : countBelow(to, toInclusive);
+        return Math.max(0, end - start);
+    }
+
+    /**
+     * @param inclusive true to also count values equal to data
+     * @return the number of values that are smaller than (or equal to) data
+     */
+    private int countBelow(Comparable<T> data, boolean inclusive) {
+        int count = 0;
+        Node<T> current = this.root;
+        while (current != null) {
+            int compare = data.compareTo(current.data);
+            if (compare > 0 || (inclusive && compare == 0)) {
+                // current and its whole left subtree are below data
+                count += subtreeSize(current.down[0]) + 1;
+                current = current.down[1];
+            } else {
+                current = current.down[0];
+            }
+        }
+        return count;
+    }
+
     /**
      * Get the size of the tree (its number of nodes).
      * @return the number of nodes in the tree
@@ -170,6 +427,28 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
         return size;
     }
 
+    /**
+     * Get the height of the tree (the number of nodes on its longest root-to-leaf path). This visits every node.
+     * @return the height of the tree, or 0 if it is empty
+     */
+    public int height() {
+        if (this.root == null)
+            return 0;
+        // level order traversal, counting levels
+        int height = 0;
+        LinkedList<Node<T>> level = new LinkedList<>();
+        level.add(this.root);
+        while (!level.isEmpty()) {
+            height++;
+            for (int i = level.size(); i > 0; i--) {
+                Node<T> next = level.removeFirst();
+                if (next.down[0] != null) level.add(next.down[0]);
+                if (next.down[1] != null) level.add(next.down[1]);
+            }
+        }
+        return height;
+    }
+
     /**
      * Method to check if the tree is empty (does not contain any node).
      * @return true of this.size() returns 0, false if this.size() != 0
@@ -248,19 +527,25 @@ public class BinarySearchTree<T extends Comparable<T>> implements SortedCollecti
         sb.append("[ ");
         int nodesVisited = 0;
         if (this.root != null) {
-            Stack<Node<T>> nodeStack = new Stack<>();
+            // a red-black tree is at most 2*log2(n+1) deep; an unbalanced tree grows the stack
+            @SuppressWarnings("unchecked")
+            Node<T>[] nodeStack = (Node<T>[]) new Node<?>[2 * (32 - Integer.numberOfLeadingZeros(this.size)) + 1];
+            int depth = 0;
             Node<T> current = this.root;
-            while (!nodeStack.isEmpty() || current != null) {
+            while (depth > 0 || current != null) {
                 if (current == null) {
-                    Node<T> popped = nodeStack.pop();
+                    Node<T> popped = nodeStack[--depth];
+                    nodeStack[depth] = null;
                     if (++nodesVisited > this.size()) {
                         throw new RuntimeException("visited more nodes during traversal than there are keys in the tree; make sure there is no loop in the tree structure");
                     }
                     sb.append(popped.data.toString());
-                    if(!nodeStack.isEmpty() || popped.down[1] != null) sb.append(", ");
+                    if(depth > 0 || popped.down[1] != null) sb.append(", ");
                     current = popped.down[1];
                 } else {
-                    nodeStack.add(current);
+                    if (depth == nodeStack.length)
+                        nodeStack = Arrays.copyOf(nodeStack, 2 * depth);
+                    nodeStack[depth++] = current;
                     current = current.down[0];
                 }
             }
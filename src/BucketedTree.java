@@ -0,0 +1,512 @@
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.ToIntFunction;
+
+/**
+ * A sorted multimap: values are grouped by an int key into buckets, and the tree holds one node per distinct key
+ * instead of one per value. Each bucket keeps its values in a sorted array, so a range scan descends the small tree
+ * of buckets once and then walks arrays.
+ *
+ * This suits values like songs, whose natural order starts with a small integer field (liveness, 0 to 100): a
+ * catalog of millions of songs is a tree of 101 buckets, and most comparisons while inserting or seeking are int
+ * comparisons of keys instead of comparisons of titles. The key has to agree with the natural order, i.e. a value
+ * that is smaller than another never has a larger key. Rank, select and range counts add up bucket sizes and take
+ * time linear in the number of distinct keys.
+ */
+public class BucketedTree<T extends Comparable<T>> implements IterableSortedCollection<T> {
+    private static final int INITIAL_BUCKET_CAPACITY = 4;
+
+    /**
+     * The values that share one key, sorted by their natural order
+     */
+    private static final class Bucket implements Comparable<Bucket> {
+        final int key;
+        Object[] values = new Object[INITIAL_BUCKET_CAPACITY];
+        int count;
+
+        Bucket(int key) {
+            this.key = key;
+        }
+
+        public int compareTo(Bucket other) {
+            return Integer.compare(key, other.key);
+        }
+    }
+
+    private final ToIntFunction<? super T> keyOf;
+    private final IterableRedBlackTree<Bucket> buckets = new IterableRedBlackTree<>();
+    private int size = 0;
+    // null to iterate from the smallest value
+    private Comparable<T> startPoint = null;
+
+    /**
+     * Creates a tree that puts every value into one bucket, which makes it a sorted array
+     */
+    public BucketedTree() {
+        this(value -> 0);
+    }
+
+    /**
+     * @param keyOf the key a value is grouped by, which must agree with the values' natural order
+     */
+    public BucketedTree(ToIntFunction<? super T> keyOf) {
+        this.keyOf = keyOf;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T value(Bucket bucket, int index) {
+        return (T) bucket.values[index];
+    }
+
+    /**
+     * @return the bucket for key, or null if no value has that key
+     */
+    private Bucket bucketFor(int key) {
+        Iterator<Bucket> found = buckets.rangeIterator(bucket -> Integer.compare(key, bucket.key), null, false);
+        if (!found.hasNext())
+            return null;
+        Bucket bucket = found.next();
+        return bucket.key == key ? bucket : null;
+    }
+
+    /**
+     * @return the buckets from the first one whose largest value is at least from, in order
+     */
+    private Iterator<Bucket> bucketsFrom(Comparable<T> from) {
+        if (from == null)
+            return buckets.rangeIterator(null, null, false);
+        return buckets.rangeIterator(bucket -> from.compareTo(value(bucket, bucket.count - 1)) <= 0 ? -1 : 1,
+                null, false);
+    }
+
+    /**
+     * @param inclusive true to also count values equal to data
+     * @return the number of values of bucket that are smaller than (or equal to) data
+     */
+    private int indexIn(Bucket bucket, Comparable<T> data, boolean inclusive) {
+        int low = 0;
+        int high = bucket.count;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int compare = data.compareTo(value(bucket, middle));
+            if (compare > 0 || (inclusive && compare == 0))
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Inserts a value into its key's bucket, after any values that compare equal to it
+     *
+     * @param data the value to insert
+     * @return true
+     * @throws NullPointerException if data is null
+     */
+    public boolean insert(T data) throws NullPointerException {
+        if (data == null)
+            throw new NullPointerException("Cannot insert data value null into the tree.");
+        int key = keyOf.applyAsInt(data);
+        Bucket bucket = bucketFor(key);
+        if (bucket == null) {
+            bucket = new Bucket(key);
+            buckets.insert(bucket);
+        }
+        int index = indexIn(bucket, data, true);
+        if (bucket.count == bucket.values.length)
+            bucket.values = Arrays.copyOf(bucket.values, bucket.count * 2);
+        System.arraycopy(bucket.values, index, bucket.values, index + 1, bucket.count - index);
+        bucket.values[index] = data;
+        bucket.count++;
+        size++;
+        return true;
+    }
+
+    /**
+     * Removes a value from its key's bucket. When several values compare equal to data, the one that equals() data
+     * is removed, and otherwise the first of them in order.
+     *
+     * @param data the value to remove
+     * @return true if a value was removed, false if no value compares equal to data
+     * @throws NullPointerException if data is null
+     */
+    public boolean remove(T data) throws NullPointerException {
+        if (data == null)
+            throw new NullPointerException("This tree cannot store null references.");
+        Bucket bucket = bucketFor(keyOf.applyAsInt(data));
+        if (bucket == null)
+            return false;
+        int index = indexToRemove(bucket, data);
+        if (index == -1)
+            return false;
+        removeAt(bucket, index);
+        return true;
+    }
+
+    /**
+     * @return the index in bucket of the value that remove(data) should remove, or -1 if there is none
+     */
+    private int indexToRemove(Bucket bucket, T data) {
+        int first = indexIn(bucket, data, false);
+        for (int i = first; i < bucket.count && data.compareTo(value(bucket, i)) == 0; i++)
+            if (data.equals(bucket.values[i]))
+                return i;
+        return first < bucket.count && data.compareTo(value(bucket, first)) == 0 ? first : -1;
+    }
+
+    private void removeAt(Bucket bucket, int index) {
+        System.arraycopy(bucket.values, index + 1, bucket.values, index, bucket.count - index - 1);
+        bucket.values[--bucket.count] = null;
+        size--;
+        if (bucket.count == 0)
+            buckets.remove(bucket);
+    }
+
+    public T pollFirst() {
+        if (size == 0)
+            return null;
+        Bucket first = buckets.select(0);
+        T data = value(first, 0);
+        removeAt(first, 0);
+        return data;
+    }
+
+    public T pollLast() {
+        if (size == 0)
+            return null;
+        Bucket last = buckets.select(buckets.size() - 1);
+        T data = value(last, last.count - 1);
+        removeAt(last, last.count - 1);
+        return data;
+    }
+
+    /**
+     * Replaces a value with another one. When the new value has the same key and sorts between the old value's
+     * neighbors in its bucket, it is simply stored in the old value's place; otherwise the old value is removed and
+     * the new one inserted.
+     *
+     * @param oldData the value to replace
+     * @param newData the value to store instead
+     * @return true if the value was replaced, false if oldData is not in the tree
+     * @throws NullPointerException when either argument is null
+     */
+    public boolean replace(T oldData, T newData) throws NullPointerException {
+        if (oldData == null || newData == null)
+            throw new NullPointerException("This tree cannot store null references.");
+        Bucket bucket = bucketFor(keyOf.applyAsInt(oldData));
+        int index = bucket == null ? -1 : indexToRemove(bucket, oldData);
+        if (index == -1)
+            return false;
+
+        if (keyOf.applyAsInt(newData) == bucket.key
+                && (index == 0 || BucketedTree.<T>value(bucket, index - 1).compareTo(newData) < 0)
+                && (index == bucket.count - 1 || BucketedTree.<T>value(bucket, index + 1).compareTo(newData) > 0)) {
+            bucket.values[index] = newData;
+            return true;
+        }
+        removeAt(bucket, index);
+        return insert(newData);
+    }
+
+    public boolean contains(Comparable<T> data) {
+        if (data == null)
+            return false;
+        Iterator<Bucket> found = bucketsFrom(data);
+        if (!found.hasNext())
+            return false;
+        Bucket bucket = found.next();
+        int index = indexIn(bucket, data, false);
+        return data.compareTo(value(bucket, index)) == 0;
+    }
+
+    public int rank(Comparable<T> data) {
+        if (data == null)
+            throw new NullPointerException("This tree cannot store null references.");
+        return countBelow(data, false);
+    }
+
+    public T select(int index) {
+        if (index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index " + index + " is not in a tree of size " + size);
+        for (Bucket bucket : buckets) {
+            if (index < bucket.count)
+                return value(bucket, index);
+            index -= bucket.count;
+        }
+        throw new IllegalStateException("Bucket sizes do not add up to the size of the tree");
+    }
+
+    public int countInRange(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        int start = from == null ? 0 : countBelow(from, false);
+        int end = to == null ? size : countBelow(to, toInclusive);
+        return Math.max(0, end - start);
+    }
+
+    /**
+     * @param inclusive true to also count values equal to data
+     * @return the number of values that are smaller than (or equal to) data
+     */
+    private int countBelow(Comparable<T> data, boolean inclusive) {
+        int count = 0;
+        for (Iterator<Bucket> each = buckets.rangeIterator(null, null, false); each.hasNext();) {
+            Bucket bucket = each.next();
+            int below = indexIn(bucket, data, inclusive);
+            count += below;
+            if (below < bucket.count)
+                break;
+        }
+        return count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        buckets.clear();
+        size = 0;
+    }
+
+    /**
+     * @return the number of buckets, which is the number of distinct keys
+     */
+    public int bucketCount() {
+        return buckets.size();
+    }
+
+    /**
+     * Adds all of values to the tree. When the tree is empty the values are sorted once (in parallel), cut into
+     * buckets of exactly the right size, and the tree of buckets is built with fromSorted(); otherwise each value is
+     * inserted normally.
+     *
+     * @param values the values to add
+     * @throws NullPointerException if values contains null
+     */
+    @Override
+    public void bulkLoad(Collection<T> values) {
+        if (!isEmpty()) {
+            for (T value : values)
+                insert(value);
+            return;
+        }
+
+        Object[] sorted = values.toArray();
+        for (Object value : sorted)
+            if (value == null)
+                throw new NullPointerException("Cannot insert data value null into the tree.");
+        // parallelSort is stable, so equal values keep their order
+        @SuppressWarnings("unchecked")
+        Comparator<Object> natural = (Comparator<Object>) (Comparator<?>) Comparator.<T>naturalOrder();
+        Arrays.parallelSort(sorted, natural);
+
+        List<Bucket> grouped = new ArrayList<>();
+        int from = 0;
+        while (from < sorted.length) {
+            int key = keyOf.applyAsInt(BucketedTree.<T>cast(sorted[from]));
+            int to = from + 1;
+            while (to < sorted.length && keyOf.applyAsInt(BucketedTree.<T>cast(sorted[to])) == key)
+                to++;
+            Bucket bucket = new Bucket(key);
+            bucket.values = Arrays.copyOfRange(sorted, from, Math.max(to, from + INITIAL_BUCKET_CAPACITY));
+            bucket.count = to - from;
+            grouped.add(bucket);
+            from = to;
+        }
+        // fromSorted() rejects buckets out of order, which happens if the key disagrees with the natural order
+        buckets.fromSorted(grouped.toArray(new Bucket[0]));
+        size = sorted.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object value) {
+        return (T) value;
+    }
+
+    public void setIterationStartPoint(Comparable<T> startPoint) {
+        this.startPoint = startPoint;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return rangeIterator(startPoint, null, false);
+    }
+
+    @Override
+    public Iterator<T> rangeIterator(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        return new BucketIterator(bucketsFrom(from), from, to, toInclusive);
+    }
+
+    /**
+     * Walks the arrays of one bucket after the other. The tree must not be changed while an iterator over it is in
+     * use.
+     */
+    private class BucketIterator implements Iterator<T> {
+        private final Iterator<Bucket> remaining;
+        private final Comparable<T> to;
+        private final boolean toInclusive;
+        private Bucket bucket;
+        private int index;
+
+        BucketIterator(Iterator<Bucket> remaining, Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+            this.remaining = remaining;
+            this.to = to;
+            this.toInclusive = toInclusive;
+            if (remaining.hasNext()) {
+                bucket = remaining.next();
+                index = from == null ? 0 : indexIn(bucket, from, false);
+                checkBound();
+            }
+        }
+
+        // ends the iteration if the next value is past the upper bound of the range
+        private void checkBound() {
+            if (bucket == null || to == null)
+                return;
+            int compare = to.compareTo(value(bucket, index));
+            if (compare < 0 || (!toInclusive && compare == 0))
+                bucket = null;
+        }
+
+        public boolean hasNext() {
+            return bucket != null;
+        }
+
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException("No next value exists");
+            T data = value(bucket, index);
+            if (++index == bucket.count) {
+                bucket = remaining.hasNext() ? remaining.next() : null;
+                index = 0;
+            }
+            checkBound();
+            return data;
+        }
+    }
+
+    /**
+     * @return true if every bucket is non-empty, sorted, holds only values of its key, and the sizes add up
+     */
+    private boolean isValid() {
+        int count = 0;
+        T last = null;
+        for (Bucket bucket : buckets) {
+            if (bucket.count == 0)
+                return false;
+            for (int i = 0; i < bucket.count; i++) {
+                T each = value(bucket, i);
+                if (keyOf.applyAsInt(each) != bucket.key || (last != null && last.compareTo(each) > 0))
+                    return false;
+                last = each;
+            }
+            count += bucket.count;
+        }
+        return count == size;
+    }
+
+    // values ordered by key and then by id, like songs by liveness and then by title
+    private record Pair(int key, int id) implements Comparable<Pair> {
+        public int compareTo(Pair other) {
+            int compare = Integer.compare(key, other.key);
+            return compare != 0 ? compare : Integer.compare(id, other.id);
+        }
+    }
+
+    /**
+     * Tests random inserts, removes, polls and replacements against a sorted list, checking the buckets after
+     * every operation
+     */
+    @Test
+    public void testRandomOperations() {
+        java.util.Random random = new java.util.Random(37);
+        List<Pair> expected = new ArrayList<>();
+        BucketedTree<Pair> testTree = new BucketedTree<>(Pair::key);
+        for (int i = 0; i < 3000; i++) {
+            Pair value = new Pair(random.nextInt(20), random.nextInt(50));
+            switch (random.nextInt(7)) {
+                case 0 -> Assertions.assertEquals(expected.remove(value), testTree.remove(value));
+                case 1 -> Assertions.assertEquals(expected.isEmpty() ? null : expected.remove(0),
+                        testTree.pollFirst());
+                case 2 -> Assertions.assertEquals(
+                        expected.isEmpty() ? null : expected.remove(expected.size() - 1), testTree.pollLast());
+                case 3 -> {
+                    Pair other = new Pair(random.nextInt(20), random.nextInt(50));
+                    boolean replaced = expected.remove(value);
+                    if (replaced) {
+                        expected.add(other);
+                        expected.sort(null);
+                    }
+                    Assertions.assertEquals(replaced, testTree.replace(value, other));
+                }
+                default -> {
+                    testTree.insert(value);
+                    expected.add(value);
+                    expected.sort(null);
+                }
+            }
+            Assertions.assertTrue(testTree.isValid());
+            Assertions.assertEquals(expected.size(), testTree.size());
+        }
+        List<Pair> values = new ArrayList<>();
+        testTree.forEach(values::add);
+        Assertions.assertEquals(expected, values);
+        Assertions.assertTrue(testTree.bucketCount() <= 20);
+        Assertions.assertThrows(NullPointerException.class, () -> testTree.insert(null));
+    }
+
+    /**
+     * Tests bulk loading, range iteration, the start point and order statistics against the same values in an
+     * IterableRedBlackTree
+     */
+    @Test
+    public void testMatchesIterableRedBlackTree() {
+        java.util.Random random = new java.util.Random(41);
+        List<Pair> values = new ArrayList<>();
+        for (int i = 0; i < 5000; i++)
+            values.add(new Pair(random.nextInt(101), random.nextInt(1000)));
+        BucketedTree<Pair> testTree = new BucketedTree<>(Pair::key);
+        IterableRedBlackTree<Pair> reference = new IterableRedBlackTree<>();
+        testTree.bulkLoad(values.subList(0, 2500));
+        reference.bulkLoad(values.subList(0, 2500));
+        testTree.bulkLoad(values.subList(2500, 5000));
+        reference.bulkLoad(values.subList(2500, 5000));
+        Assertions.assertTrue(testTree.isValid());
+        Assertions.assertEquals(101, testTree.bucketCount());
+
+        for (int from = -1; from <= 101; from += 3) {
+            Pair low = new Pair(from, random.nextInt(1000));
+            Pair high = new Pair(from + random.nextInt(10), random.nextInt(1000));
+            List<Pair> expected = new ArrayList<>();
+            reference.rangeIterator(low, high, true).forEachRemaining(expected::add);
+            List<Pair> actual = new ArrayList<>();
+            testTree.rangeIterator(low, high, true).forEachRemaining(actual::add);
+            Assertions.assertEquals(expected, actual);
+            Assertions.assertEquals(reference.rank(low), testTree.rank(low));
+            Assertions.assertEquals(reference.countInRange(low, high, false), testTree.countInRange(low, high, false));
+            Assertions.assertEquals(reference.contains(low), testTree.contains(low));
+            int index = Math.min(4999, Math.max(0, from * 50));
+            Assertions.assertEquals(reference.select(index), testTree.select(index));
+        }
+
+        // a bound that only looks at the key, like the ones Backend builds for liveness ranges
+        Comparable<Pair> atLeast50 = other -> 50 <= other.key() ? -1 : 1;
+        testTree.setIterationStartPoint(atLeast50);
+        Assertions.assertEquals(50, testTree.iterator().next().key());
+        testTree.setIterationStartPoint(null);
+        Assertions.assertEquals(reference.select(0), testTree.iterator().next());
+        Assertions.assertFalse(testTree.rangeIterator(new Pair(200, 0), null, false).hasNext());
+    }
+}
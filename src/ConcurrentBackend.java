@@ -0,0 +1,178 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * A backend that can be shared by many request threads. Unlike Backend, it keeps no query state:
+ * every query carries its own range and filters, and runs against an immutable snapshot of the
+ * song catalog without taking any locks.
+ *
+ * Loading data builds a complete new snapshot (tree plus secondary indexes) off to the side and
+ * then publishes it with a single atomic swap, so queries that are already running finish on the
+ * old catalog and queries that start afterwards see the new one. Only loads are serialized.
+ *
+ * Code that needs the stateful BackendInterface (like Frontend) can use session(), which keeps
+ * the getRange()/filterNewSongs() state for one user on top of the shared catalog.
+ */
+public class ConcurrentBackend {
+  private final Supplier<IterableSortedCollection<SongInterface>> treeFactory;
+  private final AtomicReference<IndexedSongStore> snapshot;
+  private final Object loadLock = new Object();
+
+  /**
+   * @param treeFactory creates the empty tree for each new snapshot of the catalog
+   */
+  public ConcurrentBackend(Supplier<IterableSortedCollection<SongInterface>> treeFactory) {
+    this.treeFactory = treeFactory;
+    this.snapshot = new AtomicReference<>(new IndexedSongStore(treeFactory.get(), Backend.INDEXED));
+  }
+
+  /**
+   * Replaces the catalog with the songs in a .csv file. Queries keep running on the old catalog
+   * until the new one is completely built.
+   * @param filename is the name of the csv file to load data from
+   * @throws IOException when there is trouble finding/reading file
+   */
+  public void readData(String filename) throws IOException {
+    List<SongInterface> songs = Backend.readSongs(filename);
+    synchronized (loadLock) {
+      IndexedSongStore next = new IndexedSongStore(treeFactory.get(), Backend.INDEXED);
+      next.bulkLoad(songs);
+      snapshot.set(next);
+    }
+  }
+
+  /**
+   * Adds the songs in a .csv file to the catalog, keeping the songs that are already loaded
+   * @param filename is the name of the csv file to load data from
+   * @throws IOException when there is trouble finding/reading file
+   */
+  public void appendData(String filename) throws IOException {
+    List<SongInterface> songs = Backend.readSongs(filename);
+    synchronized (loadLock) {
+      IndexedSongStore current = snapshot.get();
+      List<SongInterface> all = new ArrayList<>(current.size() + songs.size());
+      current.getSongs().rangeIterator(null, null, false).forEachRemaining(all::add);
+      all.addAll(songs);
+
+      IndexedSongStore next = new IndexedSongStore(treeFactory.get(), Backend.INDEXED);
+      next.bulkLoad(all);
+      snapshot.set(next);
+    }
+  }
+
+  /**
+   * Runs readData() in the background on the common fork-join pool
+   * @param filename is the name of the csv file to load data from
+   * @return a future that completes once the new catalog is visible to queries, or completes
+   *     exceptionally with an UncheckedIOException if the file could not be read
+   */
+  public CompletableFuture<Void> reloadAsync(String filename) {
+    return reloadAsync(filename, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Runs readData() in the background
+   * @param filename is the name of the csv file to load data from
+   * @param executor runs the load
+   * @return a future that completes once the new catalog is visible to queries, or completes
+   *     exceptionally with an UncheckedIOException if the file could not be read
+   */
+  public CompletableFuture<Void> reloadAsync(String filename, Executor executor) {
+    return CompletableFuture.runAsync(() -> {
+      try {
+        readData(filename);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, executor);
+  }
+
+  /**
+   * @return the number of songs in the current catalog
+   */
+  public int size() {
+    return snapshot.get().size();
+  }
+
+  /**
+   * @param query is the conditions that songs must meet
+   * @return List of matching songs, sorted in ascending order by Liveness
+   */
+  public List<SongInterface> query(SongQuery query) {
+    return snapshot.get().select(query);
+  }
+
+  /**
+   * Retrieves the titles of songs with low <= Liveness < high that were on Billboard during or
+   * after minYear, sorted in ascending order by Liveness.
+   * @param low is the minimum Liveness of songs in the returned list
+   * @param high is the Liveness that all returned songs are below
+   * @param minYear is the minimum year, or -1 for no year filter
+   * @return List of titles for all songs in specified range
+   */
+  public List<String> getRange(int low, int high, int minYear) {
+    return Backend.titles(query(Backend.rangeQuery(low, high, minYear)));
+  }
+
+  /**
+   * @param query is the conditions that songs must meet
+   * @param attribute is the attribute to rank songs by
+   * @param k is the maximum number of songs to return
+   * @param highest is true to return the largest values, false for the smallest
+   * @return List of at most k songs in increasing order of liveness
+   * @throws IllegalArgumentException when k is not positive
+   */
+  public List<SongInterface> topK(SongQuery query, SongAttribute attribute, int k,
+      boolean highest) {
+    return snapshot.get().topK(query, attribute, k, highest);
+  }
+
+  /**
+   * @return a new BackendInterface for a single user (and so a single thread) that keeps that
+   *     user's range and year on top of this shared catalog
+   */
+  public BackendInterface session() {
+    return new Session();
+  }
+
+  /**
+   * The stateful BackendInterface for one user. Loading data through a session replaces the
+   * catalog for every session.
+   */
+  private class Session implements BackendInterface {
+    private int year = -1;
+    private int low = -1;
+    private int high = -1;
+
+    public void readData(String filename) throws IOException {
+      ConcurrentBackend.this.readData(filename);
+    }
+
+    public List<String> getRange(int low, int high) {
+      this.low = low;
+      this.high = high;
+      return ConcurrentBackend.this.getRange(low, high, year);
+    }
+
+    public List<String> filterNewSongs(int minYear) {
+      if (this.high == -1)
+        return new ArrayList<>();
+      this.year = minYear;
+      return getRange(this.low, this.high);
+    }
+
+    public List<String> fiveLoudest() {
+      if (this.low == -1)
+        throw new IllegalStateException("getRange() not called yet");
+      return Backend.loudnessAndTitles(topK(Backend.rangeQuery(low, high, year),
+          SongAttribute.LOUDNESS, 5, true));
+    }
+  }
+}
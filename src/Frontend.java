@@ -30,6 +30,8 @@ public class Frontend implements FrontendInterface {
                 setFilter();
             else if (input.equalsIgnoreCase("d"))
                 topFive();
+            else if (input.equalsIgnoreCase("s"))
+                showStats();
             else if (!input.equalsIgnoreCase("q"))
                 System.out.println("Invalid input");
         } while (!input.equalsIgnoreCase("q"));
@@ -44,6 +46,7 @@ public class Frontend implements FrontendInterface {
                     [G]et Songs by Liveness [min - max]
                     [F]ilter New Songs (by Min Year: none)
                     [D]isplay Five Loudest
+                    [S]tats
                     [Q]uit
                 Choose command:""";
         if (min != -1)
@@ -157,4 +160,16 @@ public class Frontend implements FrontendInterface {
         for (String each : loudest)
             System.out.println(each);
     }
+
+    /**
+     * Prints the collected metrics, or turns metrics on if they were off
+     */
+    public void showStats() {
+        if (!Metrics.isEnabled()) {
+            Metrics.setEnabled(true);
+            System.out.println("Metrics are now on; they will be collected from the next command.");
+            return;
+        }
+        System.out.print(Metrics.format());
+    }
 }
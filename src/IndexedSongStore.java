@@ -0,0 +1,411 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps a collection of songs along with secondary indexes on other attributes, and answers
+ * queries made of several attribute ranges by scanning whichever index is most selective.
+ *
+ * The main collection is sorted by the songs' natural order, so it serves as the liveness index.
+ * Selectivity is counted exactly, in O(log n), from the subtree sizes of the main tree and the
+ * indexes.
+ */
+public class IndexedSongStore {
+  // select() filters liveness ranges of at least this many songs in parallel, when there is
+  // more than one core to do it on
+  static final int PARALLEL_THRESHOLD = 50_000;
+
+  private final IterableSortedCollection<SongInterface> songs;
+  private final Map<SongAttribute, SongIndex> indexes = new EnumMap<>(SongAttribute.class);
+
+  /**
+   * @param songs the collection that holds the songs in their natural (liveness) order. Songs
+   *     already in it are added to the secondary indexes
+   * @param indexed the attributes to build secondary indexes for
+   */
+  public IndexedSongStore(IterableSortedCollection<SongInterface> songs,
+      SongAttribute... indexed) {
+    this.songs = songs;
+    for (SongAttribute attribute : indexed) {
+      if (attribute != SongAttribute.LIVENESS)
+        indexes.put(attribute, new SongIndex(attribute));
+    }
+
+    if (!songs.isEmpty()) {
+      List<SongInterface> existing = new ArrayList<>(songs.size());
+      songs.rangeIterator(null, null, false).forEachRemaining(existing::add);
+      for (SongIndex index : indexes.values())
+        index.bulkLoad(existing);
+    }
+  }
+
+  public IterableSortedCollection<SongInterface> getSongs() {
+    return songs;
+  }
+
+  public int size() {
+    return songs.size();
+  }
+
+  public void insert(SongInterface song) {
+    songs.insert(song);
+    for (SongIndex index : indexes.values())
+      index.insert(song);
+  }
+
+  /**
+   * Removes a song from the collection and from every index
+   * @param song the song to remove. Of several songs that compare equal, the one that equals() it
+   *     is removed
+   * @return true if the song was found
+   */
+  public boolean remove(SongInterface song) {
+    if (!songs.remove(song))
+      return false;
+    for (SongIndex index : indexes.values())
+      index.remove(song);
+    return true;
+  }
+
+  public void bulkLoad(Collection<SongInterface> values) {
+    songs.bulkLoad(values);
+    for (SongIndex index : indexes.values())
+      index.bulkLoad(values);
+  }
+
+  public void clear() {
+    songs.clear();
+    for (SongIndex index : indexes.values())
+      index.clear();
+  }
+
+  /**
+   * Writes the main tree and every secondary index to out, so that readSnapshot() can restore
+   * them in linear time without rotating anything
+   * @param out where to write the snapshot
+   * @param codec writes each song
+   * @throws IOException if writing fails, or the main collection is not an IterableRedBlackTree
+   */
+  public void writeSnapshot(DataOutput out, IterableRedBlackTree.ValueWriter<SongInterface> codec)
+      throws IOException {
+    IterableRedBlackTree<SongInterface> tree = snapshotTree();
+    tree.writeSnapshot(out, codec);
+
+    // secondary indexes refer to songs by their position in the main tree
+    Map<SongInterface, Integer> numbers = new IdentityHashMap<>(songs.size());
+    Iterator<SongInterface> iterator = tree.rangeIterator(null, null, false);
+    for (int i = 0; iterator.hasNext(); i++)
+      numbers.put(iterator.next(), i);
+
+    out.writeInt(indexes.size());
+    for (SongIndex index : indexes.values()) {
+      out.writeInt(index.getAttribute().ordinal());
+      index.writeSnapshot(out, numbers);
+    }
+  }
+
+  /**
+   * Replaces the contents of this store with a snapshot written by writeSnapshot(). Secondary
+   * indexes that are not in the snapshot are rebuilt from the songs.
+   * @param in where to read the snapshot from
+   * @param codec reads each song
+   * @throws IOException if reading fails or the snapshot is malformed, in which case the store
+   *     is left empty
+   */
+  public void readSnapshot(DataInput in, IterableRedBlackTree.ValueReader<SongInterface> codec)
+      throws IOException {
+    IterableRedBlackTree<SongInterface> tree = snapshotTree();
+    clear();
+    try {
+      tree.readSnapshot(in, codec);
+      List<SongInterface> restored = new ArrayList<>(tree.size());
+      tree.rangeIterator(null, null, false).forEachRemaining(restored::add);
+
+      Map<SongAttribute, SongIndex> missing = new EnumMap<>(indexes);
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        int ordinal = in.readInt();
+        if (ordinal < 0 || ordinal >= SongAttribute.values().length)
+          throw new IOException("Malformed store snapshot: unknown attribute " + ordinal);
+        SongAttribute attribute = SongAttribute.values()[ordinal];
+        // an index this store does not keep still has to be read past
+        SongIndex index = indexes.containsKey(attribute) ? indexes.get(attribute)
+            : new SongIndex(attribute);
+        index.readSnapshot(in, restored);
+        missing.remove(attribute);
+      }
+      for (SongIndex index : missing.values())
+        index.bulkLoad(restored);
+    } catch (IOException | RuntimeException e) {
+      clear();
+      throw e;
+    }
+  }
+
+  private IterableRedBlackTree<SongInterface> snapshotTree() throws IOException {
+    if (!(songs instanceof IterableRedBlackTree))
+      throw new IOException("Only stores backed by an IterableRedBlackTree can be snapshotted");
+    return (IterableRedBlackTree<SongInterface>) songs;
+  }
+
+  /**
+   * @param range the range to estimate
+   * @return the number of songs in range, or -1 if its attribute is not indexed
+   */
+  public long estimate(AttributeRange range) {
+    SongAttribute attribute = range.getAttribute();
+    if (attribute != SongAttribute.LIVENESS && !indexes.containsKey(attribute))
+      return -1;
+    if (range.isEmpty())
+      return 0;
+    if (attribute == SongAttribute.LIVENESS) {
+      int min = range.getMin();
+      int max = range.getMax();
+      return songs.countInRange(other -> Integer.compare(min, other.getLiveness()),
+          other -> Integer.compare(max, other.getLiveness()), true);
+    }
+    return indexes.get(attribute).count(range.getMin(), range.getMax());
+  }
+
+  /**
+   * Counts the songs that match a query. A query with at most one range and no other filters
+   * is counted in O(log n) from the subtree sizes of the main tree or an index, without visiting
+   * any songs; other queries are counted with a scan.
+   * @param query the conditions that a song has to meet
+   * @return the number of matching songs
+   */
+  public int count(SongQuery query) {
+    List<AttributeRange> ranges = query.getRanges();
+    if (query.getFilters().isEmpty()) {
+      if (ranges.isEmpty())
+        return songs.size();
+      if (ranges.size() == 1 && estimate(ranges.get(0)) != -1)
+        return (int) estimate(ranges.get(0));
+    }
+    int[] count = {0};
+    scan(query, song -> count[0]++);
+    return count[0];
+  }
+
+  /**
+   * Picks the range whose index holds the fewest matching songs
+   * @param ranges the ranges that a song has to match
+   * @return the range to scan an index for, or null if none of the attributes are indexed and
+   *     every song has to be checked
+   */
+  public AttributeRange plan(List<AttributeRange> ranges) {
+    AttributeRange best = null;
+    long bestCount = Long.MAX_VALUE;
+    for (AttributeRange range : ranges) {
+      long count = estimate(range);
+      if (count != -1 && count < bestCount) {
+        best = range;
+        bestCount = count;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Finds the songs that match a query, scanning only the most selective index. The query's
+   * other conditions are checked after its ranges, and only on songs within every range.
+   * @param query the conditions that a song has to meet
+   * @return the matching songs in their natural (liveness) order
+   */
+  public List<SongInterface> select(SongQuery query) {
+    AttributeRange planned = plan(query.getRanges());
+    if ((planned == null || planned.getAttribute() == SongAttribute.LIVENESS)
+        && (planned == null ? size() : estimate(planned)) >= PARALLEL_THRESHOLD
+        && ForkJoinPool.getCommonPoolParallelism() > 1)
+      return parallelSelect(query, planned);
+
+    List<SongInterface> output = new ArrayList<>();
+    planned = scan(query, output::add);
+    if (planned != null && planned.getAttribute() != SongAttribute.LIVENESS)
+      Collections.sort(output);
+    return output;
+  }
+
+  /**
+   * Filters a wide liveness range of the main tree on every core. The tree's stream splits the
+   * range into parts of known size, and the ordered collect puts the parts back together in
+   * natural order. The query's filters are called from several threads at once.
+   */
+  private List<SongInterface> parallelSelect(SongQuery query, AttributeRange liveness) {
+    Comparable<SongInterface> from = null;
+    Comparable<SongInterface> to = null;
+    if (liveness != null) {
+      int min = liveness.getMin();
+      int max = liveness.getMax();
+      from = other -> Integer.compare(min, other.getLiveness());
+      to = other -> Integer.compare(max, other.getLiveness());
+    }
+    return songs.rangeStream(from, to, true).parallel().filter(query::matches)
+        .collect(Collectors.toList());
+  }
+
+  /**
+   * Passes every song that matches a query to action, like scan(List, Consumer)
+   * @param query the conditions that a song has to meet
+   * @param action called once for each matching song
+   * @return the range that was scanned, or null if every song was checked
+   */
+  public AttributeRange scan(SongQuery query, Consumer<SongInterface> action) {
+    if (query.getFilters().isEmpty())
+      return scan(query.getRanges(), action);
+    return scan(query.getRanges(), song -> {
+      if (query.matchesFilters(song))
+        action.accept(song);
+    });
+  }
+
+  /**
+   * Finds the songs that match every range, scanning only the most selective index
+   * @param ranges the ranges that a song has to match
+   * @return the matching songs in their natural (liveness) order
+   */
+  public List<SongInterface> select(List<AttributeRange> ranges) {
+    List<SongInterface> output = new ArrayList<>();
+    AttributeRange planned = scan(ranges, output::add);
+    if (planned != null && planned.getAttribute() != SongAttribute.LIVENESS)
+      Collections.sort(output);
+    return output;
+  }
+
+  /**
+   * Passes every song that matches every range to action, scanning only the most selective
+   * index. Songs are visited in the order of that index, which is only the natural (liveness)
+   * order when the liveness range was the one planned on.
+   * @param ranges the ranges that a song has to match
+   * @param action called once for each matching song
+   * @return the range that was scanned, or null if every song was checked
+   */
+  public AttributeRange scan(List<AttributeRange> ranges, Consumer<SongInterface> action) {
+    AttributeRange planned = plan(ranges);
+    if (planned != null && planned.isEmpty())
+      return planned;
+
+    Iterator<SongInterface> candidates;
+    if (planned == null) {
+      candidates = songs.rangeIterator(null, null, false);
+    } else if (planned.getAttribute() == SongAttribute.LIVENESS) {
+      int min = planned.getMin();
+      int max = planned.getMax();
+      candidates = songs.rangeIterator(other -> Integer.compare(min, other.getLiveness()),
+          other -> Integer.compare(max, other.getLiveness()), true);
+    } else {
+      candidates = indexes.get(planned.getAttribute()).range(planned.getMin(), planned.getMax());
+    }
+
+    // the planned range holds for every candidate, so only the others need checking
+    while (candidates.hasNext()) {
+      SongInterface song = candidates.next();
+      boolean matches = true;
+      for (int i = 0; i < ranges.size() && matches; i++) {
+        AttributeRange range = ranges.get(i);
+        matches = range == planned || range.matches(song);
+      }
+      if (matches)
+        action.accept(song);
+    }
+    return planned;
+  }
+
+  /**
+   * Iterates lazily over the songs that match a query, straight off the main tree. Unlike
+   * select(), this never uses a secondary index, so songs always come in natural (liveness)
+   * order and only one song is held at a time.
+   * @param query the conditions that a song has to meet
+   * @param from the first song to consider, or null to start at the query's liveness range
+   * @return the matching songs from from onward, in natural order
+   */
+  public Iterator<SongInterface> iterator(SongQuery query, Comparable<SongInterface> from) {
+    Comparable<SongInterface> to = null;
+    for (AttributeRange range : query.getRanges()) {
+      if (range.getAttribute() == SongAttribute.LIVENESS) {
+        int min = range.getMin();
+        int max = range.getMax();
+        if (from == null)
+          from = other -> Integer.compare(min, other.getLiveness());
+        to = other -> Integer.compare(max, other.getLiveness());
+      }
+    }
+
+    Iterator<SongInterface> candidates = songs.rangeIterator(from, to, true);
+    return new Iterator<SongInterface>() {
+      private SongInterface next = advance();
+
+      private SongInterface advance() {
+        while (candidates.hasNext()) {
+          SongInterface song = candidates.next();
+          if (query.matches(song))
+            return song;
+        }
+        return null;
+      }
+
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      public SongInterface next() {
+        if (next == null)
+          throw new NoSuchElementException("No next song exists");
+        SongInterface song = next;
+        next = advance();
+        return song;
+      }
+    };
+  }
+
+  /**
+   * Finds the k songs matching query with the highest (or lowest) value of an attribute, in a
+   * single pass that keeps only the best k seen so far in a heap. Ties go to the song with the
+   * higher liveness.
+   * @param query the conditions that a song has to meet
+   * @param attribute the attribute to rank songs by
+   * @param k the maximum number of songs to return
+   * @param highest true to return the largest values, false for the smallest
+   * @return at most k songs in their natural (liveness) order
+   * @throws IllegalArgumentException when k is not positive
+   */
+  public List<SongInterface> topK(SongQuery query, SongAttribute attribute, int k,
+      boolean highest) {
+    if (k <= 0)
+      throw new IllegalArgumentException("k must be positive");
+
+    // ranks songs from worst to best, so the heap's head is the first to be replaced
+    Comparator<SongInterface> rank = Comparator.comparingInt(attribute::of);
+    if (!highest)
+      rank = rank.reversed();
+    Comparator<SongInterface> order = rank.thenComparing(Comparator.naturalOrder());
+
+    PriorityQueue<SongInterface> heap = new PriorityQueue<>(Math.min(k, 1024), order);
+    scan(query, song -> {
+      if (heap.size() < k) {
+        heap.add(song);
+      } else if (order.compare(song, heap.peek()) > 0) {
+        heap.poll();
+        heap.add(song);
+      }
+    });
+
+    List<SongInterface> output = new ArrayList<>(heap);
+    Collections.sort(output);
+    return output;
+  }
+}
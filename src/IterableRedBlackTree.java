@@ -1,9 +1,21 @@
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Stack;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class IterableRedBlackTree<T extends Comparable<T>>
         extends RedBlackTree<T> implements IterableSortedCollection<T> {
@@ -20,12 +32,274 @@ public class IterableRedBlackTree<T extends Comparable<T>>
     public void setIterationStartPoint(Comparable<T> startPoint) {
         if (startPoint == null)
             this.startPoint = (other) -> -1;
-        this.startPoint = startPoint;
+        else
+            this.startPoint = startPoint;
     }
 
     @Override
     public Iterator<T> iterator() {
-        return new RBTIterator<>(this.root, startPoint);
+        return new RBTIterator<>(this.root, startPoint, null, false);
+    }
+
+    @Override
+    public Iterator<T> rangeIterator(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        return new RBTIterator<>(this.root, from, to, toInclusive);
+    }
+
+    /**
+     * @return a spliterator over every value in the tree, in ascending order
+     */
+    @Override
+    public Spliterator<T> spliterator() {
+        return new RBTSpliterator(0, size);
+    }
+
+    /**
+     * Returns a spliterator over the values that rangeIterator(from, to, toInclusive) would return. The subtree
+     * sizes give the exact position of the range's ends in O(log n), so the spliterator knows its exact size and
+     * splits into halves of exactly known size as well.
+     *
+     * @param from the smallest value to return (inclusive), or null to start at the smallest value in the tree
+     * @param to the value to stop at, or null to continue to the largest value
+     * @param toInclusive whether values equal to to are returned
+     * @return the spliterator
+     */
+    public Spliterator<T> rangeSpliterator(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        int start = from == null ? 0 : rank(from);
+        return new RBTSpliterator(start, start + countInRange(from, to, toInclusive));
+    }
+
+    /**
+     * @return a sequential stream of every value in the tree, in ascending order, which can be made parallel()
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    @Override
+    public Stream<T> rangeStream(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        return StreamSupport.stream(rangeSpliterator(from, to, toInclusive), false);
+    }
+
+    /**
+     * Adds all of values to the tree. When the tree is empty the values are sorted once (in parallel) and the
+     * tree is built from the sorted array with fromSorted(), otherwise each value is inserted normally.
+     *
+     * @param values the values to add
+     * @throws NullPointerException if values contains null
+     */
+    @Override
+    public void bulkLoad(Collection<T> values) {
+        if (!isEmpty()) {
+            for (T value : values)
+                insert(value);
+            return;
+        }
+
+        @SuppressWarnings("unchecked")
+        T[] sorted = (T[]) values.toArray(new Comparable<?>[0]);
+        for (T value : sorted)
+            if (value == null)
+                throw new NullPointerException("Cannot insert data value null into the tree.");
+        // parallelSort is stable, so equal values keep their order
+        Arrays.parallelSort(sorted, Comparator.naturalOrder());
+        fromSorted(sorted);
+    }
+
+    /**
+     * Replaces the contents of this tree with the values of sorted in linear time, without any comparisons or
+     * rotations. The tree is built bottom-up by making the middle value of each range the root of that range, so
+     * every null child ends up on one of the two deepest levels; coloring the nodes on the deepest level red when
+     * that level is not completely full (and everything else black) then gives every root-to-leaf path the same
+     * number of black nodes.
+     *
+     * @param sorted the values of the new tree in ascending order
+     * @throws IllegalArgumentException if sorted is not in ascending order
+     * @throws NullPointerException if sorted contains null
+     */
+    public void fromSorted(T[] sorted) {
+        for (int i = 1; i < sorted.length; i++)
+            if (sorted[i].compareTo(sorted[i - 1]) < 0)
+                throw new IllegalArgumentException("Values must be in ascending order");
+
+        clear();
+        // depth of the deepest level that holds nodes but is not completely full
+        int redDepth = 31 - Integer.numberOfLeadingZeros(sorted.length + 1);
+        root = buildBalanced(sorted, 0, sorted.length, 0, redDepth);
+        if (root != null)
+            ((RBTNode<T>) root).isBlack = true;
+        size = sorted.length;
+    }
+
+    /**
+     * Builds a subtree holding sorted[from] to sorted[to - 1]
+     *
+     * @param depth the depth of the subtree's root within the whole tree
+     * @param redDepth the depth at which nodes are colored red
+     * @return the root of the subtree, or null if the range is empty
+     */
+    private RBTNode<T> buildBalanced(T[] sorted, int from, int to, int depth, int redDepth) {
+        if (from >= to)
+            return null;
+
+        int middle = (from + to) >>> 1;
+        RBTNode<T> node = new RBTNode<>(sorted[middle]);
+        node.isBlack = depth != redDepth;
+
+        node.down[0] = buildBalanced(sorted, from, middle, depth + 1, redDepth);
+        if (node.down[0] != null)
+            node.down[0].up = node;
+        node.down[1] = buildBalanced(sorted, middle + 1, to, depth + 1, redDepth);
+        if (node.down[1] != null)
+            node.down[1].up = node;
+        node.subtreeSize = to - from;
+        return node;
+    }
+
+    /**
+     * Writes the values stored in a tree snapshot
+     */
+    @FunctionalInterface
+    public interface ValueWriter<T> {
+        void write(DataOutput out, T value) throws IOException;
+    }
+
+    /**
+     * Reads the values stored in a tree snapshot, in the order a ValueWriter wrote them
+     */
+    @FunctionalInterface
+    public interface ValueReader<T> {
+        T read(DataInput in) throws IOException;
+    }
+
+    // flags stored with every node of a snapshot
+    private static final int SNAPSHOT_BLACK = 1;
+    private static final int SNAPSHOT_LEFT = 2;
+    private static final int SNAPSHOT_RIGHT = 4;
+
+    /**
+     * Writes the exact shape of this tree to out: the size, then every node in pre-order as a byte of flags (its
+     * color and which children it has) followed by its value. readSnapshot() can rebuild the same tree from this
+     * in linear time, comparing each value once with its subtrees' bounds and doing no rotations.
+     *
+     * @param out where to write the snapshot
+     * @param codec writes each value
+     * @throws IOException if writing to out fails
+     */
+    public void writeSnapshot(DataOutput out, ValueWriter<T> codec) throws IOException {
+        out.writeInt(size);
+        if (root != null)
+            writeSnapshotNode(out, codec, (RBTNode<T>) root);
+    }
+
+    private void writeSnapshotNode(DataOutput out, ValueWriter<T> codec, RBTNode<T> node) throws IOException {
+        int flags = (node.isBlack ? SNAPSHOT_BLACK : 0) | (node.down[0] != null ? SNAPSHOT_LEFT : 0)
+                | (node.down[1] != null ? SNAPSHOT_RIGHT : 0);
+        out.writeByte(flags);
+        codec.write(out, node.data);
+        if (node.down[0] != null)
+            writeSnapshotNode(out, codec, node.getDownLeft());
+        if (node.down[1] != null)
+            writeSnapshotNode(out, codec, node.getDownRight());
+    }
+
+    /**
+     * Replaces the contents of this tree with a snapshot written by writeSnapshot()
+     *
+     * @param in where to read the snapshot from
+     * @param codec reads each value
+     * @throws IOException if reading from in fails or the snapshot is malformed, including one that does not
+     *                     describe a valid red-black tree, in which case the tree is left empty
+     */
+    public void readSnapshot(DataInput in, ValueReader<T> codec) throws IOException {
+        clear();
+        int expected = in.readInt();
+        if (expected < 0)
+            throw new IOException("Malformed tree snapshot: negative size");
+        try {
+            if (expected > 0)
+                root = readSnapshotNodes(in, codec, expected);
+            size = expected;
+        } catch (IOException | RuntimeException e) {
+            clear();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the nodes of a snapshot in pre-order without recursing, so a corrupt or degenerate snapshot cannot
+     * overflow the stack. The nodes whose right child still has to be read wait on a stack of their own. A second
+     * linear pass then sets the subtree sizes and checks that the values are in order and the colors are valid.
+     */
+    private RBTNode<T> readSnapshotNodes(DataInput in, ValueReader<T> codec, int expected) throws IOException {
+        List<RBTNode<T>> preOrder = new ArrayList<>(expected);
+        ArrayDeque<RBTNode<T>> waitingForRight = new ArrayDeque<>();
+        RBTNode<T> root = null;
+        RBTNode<T> parent = null;
+        boolean isLeft = false;
+        while (true) {
+            if (preOrder.size() == expected)
+                throw new IOException("Malformed tree snapshot: more than " + expected + " nodes");
+            int flags = in.readUnsignedByte();
+            RBTNode<T> node = new RBTNode<>(codec.read(in));
+            node.isBlack = (flags & SNAPSHOT_BLACK) != 0;
+            preOrder.add(node);
+            if (parent == null) {
+                root = node;
+            } else {
+                node.up = parent;
+                parent.down[isLeft ? 0 : 1] = node;
+            }
+
+            if ((flags & SNAPSHOT_LEFT) != 0) {
+                if ((flags & SNAPSHOT_RIGHT) != 0)
+                    waitingForRight.push(node);
+                parent = node;
+                isLeft = true;
+            } else if ((flags & SNAPSHOT_RIGHT) != 0) {
+                parent = node;
+                isLeft = false;
+            } else if (!waitingForRight.isEmpty()) {
+                // this subtree is complete, so the next node is the right child of the latest node waiting for one
+                parent = waitingForRight.pop();
+                isLeft = false;
+            } else {
+                break;
+            }
+        }
+        if (preOrder.size() != expected)
+            throw new IOException("Malformed tree snapshot: expected " + expected + " nodes but found "
+                    + preOrder.size());
+
+        // going backwards through the pre-order visits a node's right subtree, then its left subtree, then the node,
+        // so the summaries of both children are on top of the stack when their parent is reached
+        ArrayDeque<SnapshotSubtree<T>> subtrees = new ArrayDeque<>();
+        for (int i = preOrder.size() - 1; i >= 0; i--) {
+            RBTNode<T> node = preOrder.get(i);
+            SnapshotSubtree<T> left = node.down[0] != null ? subtrees.pop() : null;
+            SnapshotSubtree<T> right = node.down[1] != null ? subtrees.pop() : null;
+            if ((left != null && left.max().compareTo(node.data) > 0)
+                    || (right != null && right.min().compareTo(node.data) < 0))
+                throw new IOException("Malformed tree snapshot: values out of order");
+            if (!node.isBlack && ((left != null && !node.getDownLeft().isBlack)
+                    || (right != null && !node.getDownRight().isBlack)))
+                throw new IOException("Malformed tree snapshot: red node with a red child");
+            int blackHeight = left != null ? left.blackHeight() : 0;
+            if (blackHeight != (right != null ? right.blackHeight() : 0))
+                throw new IOException("Malformed tree snapshot: paths with different numbers of black nodes");
+            node.subtreeSize = subtreeSize(node.down[0]) + subtreeSize(node.down[1]) + 1;
+            subtrees.push(new SnapshotSubtree<>(left != null ? left.min() : node.data,
+                    right != null ? right.max() : node.data, blackHeight + (node.isBlack ? 1 : 0)));
+        }
+        if (!root.isBlack)
+            throw new IOException("Malformed tree snapshot: red root");
+        return root;
+    }
+
+    /**
+     * The smallest and largest value and the black height of a subtree that has been read from a snapshot
+     */
+    private record SnapshotSubtree<T>(T min, T max, int blackHeight) {
     }
 
     /**
@@ -56,6 +330,7 @@ public class IterableRedBlackTree<T extends Comparable<T>>
                         current.down[0] = newNode;
                         newNode.up = current;
                         this.size++;
+                        adjustSubtreeSizes(current, 1);
                         return true;
                     } else {
                         // no empty space, keep moving down the tree
@@ -68,6 +343,7 @@ public class IterableRedBlackTree<T extends Comparable<T>>
                         current.down[1] = newNode;
                         newNode.up = current;
                         this.size++;
+                        adjustSubtreeSizes(current, 1);
                         return true;
                     } else {
                         // no empty space, keep moving down the tree
@@ -78,46 +354,154 @@ public class IterableRedBlackTree<T extends Comparable<T>>
         }
     }
 
+    /**
+     * This tree holds duplicates, so when several values compare equal to data, remove() and replace() pick the one
+     * that equals() data, and otherwise the first of them in order.
+     *
+     * @param data the value to remove
+     * @return the node to remove, or null if no value compares equal to data
+     */
+    @Override
+    protected Node<T> findNodeToRemove(T data) {
+        // Finds the first node that is not smaller than data
+        Node<T> first = null;
+        Node<T> current = this.root;
+        while (current != null) {
+            if (data.compareTo(current.data) <= 0) {
+                first = current;
+                current = current.down[0];
+            } else {
+                current = current.down[1];
+            }
+        }
+        if (first == null || data.compareTo(first.data) != 0)
+            return null;
+
+        Node<T> node = first;
+        while (node != null && data.compareTo(node.data) == 0 && !data.equals(node.data))
+            node = successor(node);
+        if (node == null || data.compareTo(node.data) != 0)
+            return first;
+        return node;
+    }
+
+    /**
+     * Iterates lazily through a range of the tree. The first node is found with a single descent from the root, and
+     * each call to next() steps to the in-order successor through the child and parent references, so the iterator
+     * needs O(log n) time to start and O(1) extra memory.
+     */
     private static class RBTIterator<R> implements Iterator<R> {
-        private Comparable<R> startPoint;
-        private Stack<Node<R>> stack;
+        private final Comparable<R> to;
+        private final boolean toInclusive;
+        private Node<R> next;
 
-        public RBTIterator(Node<R> root, Comparable<R> startPoint) {
-            this.startPoint = startPoint;
-            stack = new Stack<>();
-            buildStackHelper(root);
+        public RBTIterator(Node<R> root, Comparable<R> from, Comparable<R> to, boolean toInclusive) {
+            this.to = to;
+            this.toInclusive = toInclusive;
+            Metrics.ITERATORS.increment();
+
+            // Finds the smallest node that is at least from
+            Node<R> current = root;
+            while (current != null) {
+                if (from == null || from.compareTo(current.data) <= 0) {
+                    next = current;
+                    current = current.down[0];
+                } else {
+                    current = current.down[1];
+                }
+            }
+            next = withinBound(next);
         }
 
         /**
-         * Builds the stack to be used by the iterator
-         *
-         * @param node the root node of the subtree which is added to the stack if it should as well as recursively
-         *             calling this method on its children (If it should)
+         * @return node if it is not past the upper bound of the range, otherwise null
          */
-        private void buildStackHelper(Node<R> node) {
-            // Base case
-            if (node == null)
-                return;
-
-            // Recursive cases
-            // Checks the largest (right child) nodes first
-            buildStackHelper(node.down[1]);
-
-            // If this node is greater than startPoint, adds it to stack and checks left subtree
-            if (startPoint.compareTo(node.data) <= 0) {
-                stack.add(node);
-                buildStackHelper(node.down[0]);
-            }
+        private Node<R> withinBound(Node<R> node) {
+            if (node == null || to == null)
+                return node;
+            int compare = to.compareTo(node.data);
+            return compare > 0 || (toInclusive && compare == 0) ? node : null;
         }
 
         public boolean hasNext() {
-            return !stack.isEmpty();
+            return next != null;
         }
 
         public R next() {
             if (!hasNext())
                 throw new NoSuchElementException("No next value exists");
-            return stack.pop().data;
+            R data = next.data;
+            next = withinBound(successor(next));
+            Metrics.ITERATOR_NODES.increment();
+            return data;
+        }
+    }
+
+    /**
+     * Walks the values at a range of in-order positions. A split hands the first half of the positions to a new
+     * spliterator; since every node knows its subtree size, the node where either half starts is found with one
+     * descent from the root, so splitting costs O(log n) and both halves know their exact size. The tree must not
+     * be changed while a spliterator over it is in use.
+     */
+    private class RBTSpliterator implements Spliterator<T> {
+        // splitting off fewer values than this costs more than it saves
+        private static final int MIN_SPLIT = 64;
+
+        private int index;
+        private final int end;
+        // the node at index, or null until it is first needed
+        private Node<T> next;
+
+        RBTSpliterator(int index, int end) {
+            this.index = index;
+            this.end = end;
+        }
+
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (index >= end)
+                return false;
+            if (next == null)
+                next = nodeAt(index);
+            action.accept(next.data);
+            next = successor(next);
+            index++;
+            return true;
+        }
+
+        public void forEachRemaining(Consumer<? super T> action) {
+            if (index >= end)
+                return;
+            Node<T> node = next != null ? next : nodeAt(index);
+            for (; index < end; index++) {
+                action.accept(node.data);
+                node = successor(node);
+            }
+            next = null;
+        }
+
+        public Spliterator<T> trySplit() {
+            int remaining = end - index;
+            if (remaining < 2 * MIN_SPLIT)
+                return null;
+            int middle = index + remaining / 2;
+            RBTSpliterator prefix = new RBTSpliterator(index, middle);
+            prefix.next = next;
+            index = middle;
+            next = null;
+            return prefix;
+        }
+
+        public long estimateSize() {
+            return end - index;
+        }
+
+        public int characteristics() {
+            return ORDERED | SORTED | SIZED | SUBSIZED | NONNULL;
+        }
+
+        // values are in their natural order
+        public Comparator<? super T> getComparator() {
+            return null;
         }
     }
 
@@ -205,4 +589,261 @@ public class IterableRedBlackTree<T extends Comparable<T>>
         Assertions.assertTrue(testIterator.next().equals(10));
         Assertions.assertTrue(!testIterator.hasNext());
     }
+
+    /**
+     * Tests that removing one of several equal values removes the one that equals() it
+     */
+    @Test
+    public void testRemoveDuplicates() {
+        IterableRedBlackTree<String> testTree = new IterableRedBlackTree<>();
+        String[] copies = new String[20];
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = new String("b");
+            testTree.insert(copies[i]);
+            testTree.insert("a" + i);
+        }
+
+        // equal strings are all equals(), so this only has to remove one of them
+        Assertions.assertTrue(testTree.remove("b"));
+        Assertions.assertEquals(39, testTree.size());
+        Assertions.assertTrue(blackHeight(testTree.root) != -1);
+        Assertions.assertFalse(testTree.remove("c"));
+
+        // values that compare equal but are not equals() are told apart
+        record Pair(int key, int id) implements Comparable<Pair> {
+            public int compareTo(Pair other) {
+                return Integer.compare(key, other.key);
+            }
+        }
+        IterableRedBlackTree<Pair> pairs = new IterableRedBlackTree<>();
+        for (int i = 0; i < 30; i++)
+            pairs.insert(new Pair(i % 3, i));
+        Assertions.assertTrue(pairs.remove(new Pair(2, 17)));
+        Assertions.assertFalse(pairs.remove(new Pair(3, 17)));
+        for (Pair each : pairs)
+            Assertions.assertTrue(each.id() != 17);
+        Assertions.assertTrue(blackHeight(pairs.root) != -1);
+        Assertions.assertEquals(29, pairs.size());
+    }
+
+    /**
+     * Tests rank(), select() and countInRange() against a sorted list while values are inserted, removed and bulk
+     * loaded, checking that every subtree size stays correct through the rotations
+     */
+    @Test
+    public void testOrderStatistics() {
+        java.util.Random random = new java.util.Random(17);
+        java.util.List<Integer> expected = new java.util.ArrayList<>();
+        IterableRedBlackTree<Integer> testTree = new IterableRedBlackTree<>();
+        for (int i = 0; i < 2000; i++) {
+            int value = random.nextInt(300);
+            if (random.nextInt(3) == 0) {
+                Assertions.assertEquals(expected.remove((Integer) value), testTree.remove(value));
+            } else {
+                testTree.insert(value);
+                expected.add(value);
+            }
+            if (i == 1000) {
+                // rebuilds the tree with subtree sizes set by fromSorted()
+                testTree.clear();
+                testTree.bulkLoad(expected);
+            }
+        }
+        java.util.Collections.sort(expected);
+        Assertions.assertTrue(blackHeight(testTree.root) != -1);
+        Assertions.assertEquals(expected.size(), testTree.size());
+
+        for (int i = 0; i < expected.size(); i++)
+            Assertions.assertEquals(expected.get(i), testTree.select(i));
+        for (int value = -1; value <= 301; value++) {
+            int below = 0;
+            int atMost = 0;
+            for (int each : expected) {
+                below += each < value ? 1 : 0;
+                atMost += each <= value ? 1 : 0;
+            }
+            Assertions.assertEquals(below, testTree.rank(value));
+            Assertions.assertEquals(atMost - below, testTree.countInRange(value, value, true));
+            Assertions.assertEquals(expected.size() - below, testTree.countInRange(value, null, false));
+            Assertions.assertEquals(below, testTree.countInRange(null, value, false));
+        }
+        Assertions.assertEquals(0, testTree.countInRange(200, 100, true));
+        Assertions.assertThrows(IndexOutOfBoundsException.class, () -> testTree.select(expected.size()));
+    }
+
+    /**
+     * Tests that spliterators report exact sizes through every split, and that parallel streams return values in
+     * order
+     */
+    @Test
+    public void testSpliterator() {
+        IterableRedBlackTree<Integer> testTree = new IterableRedBlackTree<>();
+        java.util.List<Integer> values = new java.util.ArrayList<>();
+        for (int i = 0; i < 10000; i++)
+            values.add(i / 3);
+        testTree.bulkLoad(values);
+
+        Spliterator<Integer> whole = testTree.spliterator();
+        Assertions.assertTrue(whole.hasCharacteristics(Spliterator.SUBSIZED | Spliterator.ORDERED));
+        Spliterator<Integer> prefix = whole.trySplit();
+        Assertions.assertEquals(10000, prefix.estimateSize() + whole.estimateSize());
+        int[] last = {-1};
+        prefix.forEachRemaining(each -> last[0] = each);
+        Assertions.assertTrue(whole.tryAdvance(each -> Assertions.assertTrue(each >= last[0])));
+
+        Assertions.assertEquals(values, testTree.stream().parallel().collect(java.util.stream.Collectors.toList()));
+        Assertions.assertEquals(300, testTree.rangeSpliterator(1000, 1100, false).estimateSize());
+        Assertions.assertEquals(values.subList(3000, 3303), testTree.rangeStream(1000, 1100, true).parallel()
+                .collect(java.util.stream.Collectors.toList()));
+        Assertions.assertEquals(0, testTree.rangeStream(5000, null, false).count());
+        Assertions.assertEquals(5001, testTree.rangeStream(null, null, false).parallel()
+                .filter(each -> each % 2 == 0).count());
+    }
+
+    /**
+     * Tests that bulk loading produces a valid red-black tree for every size up to 200, and falls back to
+     * inserting when the tree already has values
+     */
+    @Test
+    public void testBulkLoad() {
+        for (int n = 0; n <= 200; n++) {
+            java.util.List<Integer> values = new java.util.ArrayList<>();
+            for (int i = n - 1; i >= 0; i--)
+                values.add(i / 2);
+
+            IterableRedBlackTree<Integer> testTree = new IterableRedBlackTree<>();
+            testTree.bulkLoad(values);
+
+            Assertions.assertEquals(n, testTree.size());
+            Assertions.assertTrue(blackHeight(testTree.root) != -1);
+            Assertions.assertTrue(testTree.root == null || ((RBTNode<Integer>) testTree.root).isBlack);
+            int i = 0;
+            for (Integer each : testTree)
+                Assertions.assertEquals(i++ / 2, (int) each);
+            Assertions.assertEquals(n, i);
+        }
+
+        IterableRedBlackTree<Integer> testTree = new IterableRedBlackTree<>();
+        testTree.insert(5);
+        testTree.bulkLoad(java.util.Arrays.asList(3, 7, 1));
+        Assertions.assertEquals(4, testTree.size());
+        Assertions.assertTrue(blackHeight(testTree.root) != -1);
+    }
+
+    /**
+     * Tests range iteration with inclusive, exclusive and open bounds, including duplicates at both ends
+     */
+    @Test
+    public void testRangeIterator() {
+        IterableRedBlackTree<Integer> testTree = new IterableRedBlackTree<>();
+        for (int i = 0; i < 50; i++) {
+            testTree.insert(i % 10);
+        }
+
+        int count = 0;
+        Iterator<Integer> testIterator = testTree.rangeIterator(3, 6, false);
+        while (testIterator.hasNext()) {
+            int each = testIterator.next();
+            Assertions.assertTrue(each >= 3 && each < 6);
+            count++;
+        }
+        Assertions.assertEquals(15, count);
+
+        count = 0;
+        testIterator = testTree.rangeIterator(3, 6, true);
+        while (testIterator.hasNext()) {
+            Assertions.assertTrue(testIterator.next() <= 6);
+            count++;
+        }
+        Assertions.assertEquals(20, count);
+
+        // open ends, and a range that holds nothing
+        testIterator = testTree.rangeIterator(null, 0, true);
+        Assertions.assertTrue(testIterator.next() == 0);
+        testIterator = testTree.rangeIterator(8, null, false);
+        Assertions.assertTrue(testIterator.next() == 8);
+        Assertions.assertTrue(!testTree.rangeIterator(20, null, false).hasNext());
+        Assertions.assertTrue(!testTree.rangeIterator(4, 4, false).hasNext());
+    }
+
+    /**
+     * Tests that a snapshot restores the exact shape and colors of a tree built by inserts
+     */
+    @Test
+    public void testSnapshot() throws IOException {
+        IterableRedBlackTree<Integer> testTree = new IterableRedBlackTree<>();
+        for (int i = 0; i < 300; i++)
+            testTree.insert((i * 37) % 101);
+
+        ValueReader<Integer> codec = DataInput::readInt;
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        testTree.writeSnapshot(new java.io.DataOutputStream(bytes), DataOutput::writeInt);
+
+        IterableRedBlackTree<Integer> restored = new IterableRedBlackTree<>();
+        restored.insert(5);
+        restored.readSnapshot(new java.io.DataInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray())),
+                codec);
+        Assertions.assertEquals(testTree.size(), restored.size());
+        Assertions.assertEquals(testTree.toString(), restored.toString());
+        Assertions.assertTrue(blackHeight(restored.root) != -1);
+
+        // a truncated snapshot is rejected and leaves the tree empty
+        byte[] truncated = java.util.Arrays.copyOf(bytes.toByteArray(), 100);
+        try {
+            restored.readSnapshot(new java.io.DataInputStream(new java.io.ByteArrayInputStream(truncated)), codec);
+            Assertions.fail();
+        } catch (IOException e) {
+            Assertions.assertTrue(restored.isEmpty());
+        }
+
+        // a list of black nodes that each have only a right child is well-formed but not a red-black tree, and is
+        // rejected without running out of stack
+        int n = 200_000;
+        bytes.reset();
+        java.io.DataOutputStream out = new java.io.DataOutputStream(bytes);
+        out.writeInt(n);
+        for (int i = 0; i < n; i++) {
+            out.writeByte(i + 1 < n ? SNAPSHOT_BLACK | SNAPSHOT_RIGHT : SNAPSHOT_BLACK);
+            out.writeInt(i);
+        }
+        try {
+            restored.readSnapshot(new java.io.DataInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray())),
+                    codec);
+            Assertions.fail();
+        } catch (IOException e) {
+            Assertions.assertTrue(restored.isEmpty());
+        }
+
+        // so are values out of order and a red node with a red child
+        for (int[] nodes : new int[][] {
+                {SNAPSHOT_BLACK | SNAPSHOT_LEFT | SNAPSHOT_RIGHT, 2, 0, 3, 0, 1},
+                {SNAPSHOT_BLACK | SNAPSHOT_LEFT, 3, SNAPSHOT_LEFT, 2, 0, 1}}) {
+            bytes.reset();
+            out.writeInt(3);
+            for (int i = 0; i < nodes.length; i += 2) {
+                out.writeByte(nodes[i]);
+                out.writeInt(nodes[i + 1]);
+            }
+            try {
+                restored.readSnapshot(new java.io.DataInputStream(
+                        new java.io.ByteArrayInputStream(bytes.toByteArray())), codec);
+                Assertions.fail();
+            } catch (IOException e) {
+                Assertions.assertTrue(restored.isEmpty());
+            }
+        }
+
+        // a large valid tree round trips through the iterative reader
+        Integer[] values = new Integer[n];
+        for (int i = 0; i < n; i++)
+            values[i] = i;
+        testTree.fromSorted(values);
+        bytes.reset();
+        testTree.writeSnapshot(out, DataOutput::writeInt);
+        restored.readSnapshot(new java.io.DataInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray())),
+                codec);
+        Assertions.assertEquals(n, restored.size());
+        Assertions.assertEquals(n, restored.root.subtreeSize);
+        Assertions.assertTrue(blackHeight(restored.root) != -1);
+    }
 }
@@ -1,3 +1,10 @@
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
 /**
  * This ADT supports iteration through a sorted collection.
  * 
@@ -11,4 +18,59 @@ public interface IterableSortedCollection<T extends Comparable<T>>
 
     public void setIterationStartPoint(Comparable<T> startPoint);
 
+    /**
+     * Returns an iterator over the values between from and to, in ascending
+     * order. Unlike iterator(), the bounds belong to the returned iterator
+     * alone, so this does not depend on (or change) the iteration start point.
+     *
+     * @param from the smallest value to return (inclusive), or null to start
+     *     at the smallest value in the collection
+     * @param to the value to stop at, or null to continue to the largest value
+     * @param toInclusive whether values equal to to are returned
+     */
+    public Iterator<T> rangeIterator(Comparable<T> from, Comparable<T> to, boolean toInclusive);
+
+    /**
+     * Returns the number of values in the collection that are smaller than
+     * data, which is also the position data has (or would have) in ascending
+     * order.
+     */
+    public int rank(Comparable<T> data);
+
+    /**
+     * Returns the value at a position in ascending order, starting at 0.
+     *
+     * @throws IndexOutOfBoundsException when index is negative or not less
+     *     than size()
+     */
+    public T select(int index);
+
+    /**
+     * Returns the number of values that rangeIterator(from, to, toInclusive)
+     * would return, without iterating over them.
+     */
+    public int countInRange(Comparable<T> from, Comparable<T> to, boolean toInclusive);
+
+    /**
+     * Returns a stream of the values that rangeIterator(from, to, toInclusive)
+     * would return, in ascending order. Implementations that know the size of
+     * any part of the range can split the stream evenly, so that parallel()
+     * streams spread the work over several threads while still producing the
+     * values in order.
+     */
+    public default Stream<T> rangeStream(Comparable<T> from, Comparable<T> to, boolean toInclusive) {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                rangeIterator(from, to, toInclusive), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Adds every value in values to this collection. Implementations may
+     * build their structure in bulk instead of inserting values one by one,
+     * which is much faster when loading into an empty collection.
+     */
+    public default void bulkLoad(Collection<T> values) {
+        for (T value : values)
+            insert(value);
+    }
+
 }
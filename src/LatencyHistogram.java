@@ -0,0 +1,96 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds with fixed relative precision, in the style of
+ * HdrHistogram. Every power of two is split into SUB_BUCKETS linear buckets, so a recorded value
+ * is reported to within 1/SUB_BUCKETS (12.5%) of itself, from 1ns up to several hours, with a
+ * fixed 4KB of counts. Recording is a few shifts and one atomic increment, and is safe from any
+ * number of threads.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  // values below SUB_BUCKETS each get their own bucket; above that, 8 buckets per power of two
+  private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final LongAdder total = new LongAdder();
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * @param nanos the duration to record; negative values are recorded as 0
+   */
+  public void record(long nanos) {
+    nanos = Math.max(0, nanos);
+    counts.incrementAndGet(bucket(nanos));
+    total.add(nanos);
+    max.accumulate(nanos);
+  }
+
+  private static int bucket(long value) {
+    if (value < SUB_BUCKETS)
+      return (int) value;
+    // the position of the highest bit picks the power of two, the next bits the linear bucket
+    int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> exponent) & (SUB_BUCKETS - 1);
+    return (exponent + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  // the largest value that falls into bucket
+  private static long upperBound(int bucket) {
+    if (bucket < SUB_BUCKETS)
+      return bucket;
+    int exponent = bucket / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << exponent;
+    return lowest + (1L << exponent) - 1;
+  }
+
+  /**
+   * @return the number of recorded values
+   */
+  public long count() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++)
+      count += counts.get(i);
+    return count;
+  }
+
+  /**
+   * @return the sum of all recorded values
+   */
+  public long total() {
+    return total.sum();
+  }
+
+  public long max() {
+    return max.get();
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return a value that at least percentile percent of the recorded values are at most, within
+   *     the histogram's precision, or 0 if nothing was recorded
+   */
+  public long percentile(double percentile) {
+    long count = count();
+    if (count == 0)
+      return 0;
+    long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100));
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts.get(i);
+      if (seen >= rank)
+        return Math.min(upperBound(i), max());
+    }
+    return max();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++)
+      counts.set(i, 0);
+    total.reset();
+    max.reset();
+  }
+}
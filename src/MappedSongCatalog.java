@@ -0,0 +1,296 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A song catalog stored in a compact binary file that is memory-mapped instead of parsed. Songs
+ * are read through views that decode their fields from the mapped buffer on demand, so opening a
+ * catalog costs almost no heap, and several processes reading the same catalog share the pages
+ * in the operating system's page cache.
+ *
+ * File layout (big-endian):
+ * <pre>
+ * header   "SONGCAT1", int version, int flags (0), int rows, int columns, long heap offset
+ * columns  one block of rows ints per SongAttribute, in SongAttribute order
+ * strings  rows x 3 ints: heap offsets of the title, artist and genres of each row
+ * heap     each distinct string once, as an int byte length followed by its UTF-8 bytes
+ * </pre>
+ * Rows are written in the songs' natural (liveness, title) order.
+ */
+public class MappedSongCatalog {
+  private static final byte[] MAGIC = "SONGCAT1".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 32;
+  private static final int STRING_FIELDS = 3;
+  private static final SongAttribute[] ATTRIBUTES = SongAttribute.values();
+
+  private final ByteBuffer buffer;
+  private final int rows;
+  private final long heapOffset;
+  private final long stringsOffset;
+
+  private MappedSongCatalog(ByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    byte[] magic = new byte[MAGIC.length];
+    buffer.get(0, magic);
+    if (!Arrays.equals(magic, MAGIC))
+      throw new IOException("Not a song catalog file");
+    if (buffer.getInt(8) != VERSION)
+      throw new IOException("Unsupported song catalog version " + buffer.getInt(8));
+    this.rows = buffer.getInt(16);
+    if (buffer.getInt(20) != ATTRIBUTES.length)
+      throw new IOException("Song catalog has " + buffer.getInt(20) + " columns, expected "
+          + ATTRIBUTES.length);
+    this.heapOffset = buffer.getLong(24);
+    this.stringsOffset = HEADER_SIZE + 4L * rows * ATTRIBUTES.length;
+    // a truncated or corrupt file would otherwise only fail once a getter reads past its end
+    if (rows < 0 || heapOffset < stringsOffset + 4L * STRING_FIELDS * rows
+        || heapOffset > buffer.capacity())
+      throw new IOException("Song catalog is truncated or corrupt: " + rows + " rows, heap at "
+          + heapOffset + " in a file of " + buffer.capacity() + " bytes");
+  }
+
+  /**
+   * Maps a catalog file into memory
+   * @param filename the catalog written by write()
+   * @return the mapped catalog
+   * @throws IOException when the file cannot be read or is not a catalog
+   */
+  public static MappedSongCatalog open(String filename) throws IOException {
+    try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE)
+        throw new IOException("Song catalogs larger than 2GB are not supported");
+      if (channel.size() < HEADER_SIZE)
+        throw new IOException("Not a song catalog file");
+      // the mapping stays valid after the channel is closed
+      return new MappedSongCatalog(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * @param filename the file to check
+   * @return true if the file starts like a catalog written by write()
+   * @throws IOException when the file cannot be read
+   */
+  public static boolean isCatalog(String filename) throws IOException {
+    try (InputStream in = new FileInputStream(filename)) {
+      return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+    }
+  }
+
+  /**
+   * Writes songs to a catalog file. Equal strings (e.g. the same artist on many rows) are stored
+   * only once.
+   * @param filename the file to create or overwrite
+   * @param songs the songs to write
+   * @throws IOException when the file cannot be written
+   */
+  public static void write(String filename, Collection<? extends SongInterface> songs)
+      throws IOException {
+    List<SongInterface> sorted = new ArrayList<>(songs);
+    Collections.sort(sorted);
+    int rows = sorted.size();
+
+    // lay out the string heap first so the offsets are known
+    ByteArrayOutputStream heap = new ByteArrayOutputStream();
+    DataOutputStream heapOut = new DataOutputStream(heap);
+    Map<String, Integer> offsets = new HashMap<>();
+    int[] references = new int[rows * STRING_FIELDS];
+    for (int row = 0; row < rows; row++) {
+      SongInterface song = sorted.get(row);
+      String[] fields = {song.getTitle(), song.getArtist(), song.getGenres()};
+      for (int i = 0; i < STRING_FIELDS; i++) {
+        Integer offset = offsets.get(fields[i]);
+        if (offset == null) {
+          offset = heap.size();
+          byte[] bytes = fields[i].getBytes(StandardCharsets.UTF_8);
+          heapOut.writeInt(bytes.length);
+          heapOut.write(bytes);
+          offsets.put(fields[i], offset);
+        }
+        references[row * STRING_FIELDS + i] = offset;
+      }
+    }
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(filename), 1 << 16))) {
+      out.write(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(0);
+      out.writeInt(rows);
+      out.writeInt(ATTRIBUTES.length);
+      out.writeLong(HEADER_SIZE + 4L * rows * (ATTRIBUTES.length + STRING_FIELDS));
+      for (SongAttribute attribute : ATTRIBUTES)
+        for (SongInterface song : sorted)
+          out.writeInt(attribute.of(song));
+      for (int reference : references)
+        out.writeInt(reference);
+      heap.writeTo(out);
+    }
+  }
+
+  /**
+   * Converts a .csv file into a catalog file
+   * @param args the csv file to read and the catalog file to write
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.out.println("Usage: java MappedSongCatalog songs.csv songs.catalog");
+      return;
+    }
+    List<SongInterface> songs = Backend.readSongs(args[0]);
+    write(args[1], songs);
+    System.out.println("Wrote " + songs.size() + " songs to " + args[1]);
+  }
+
+  public int size() {
+    return rows;
+  }
+
+  /**
+   * @param row the row number
+   * @return a view that reads the row from the mapped file whenever one of its getters is called
+   */
+  public SongInterface get(int row) {
+    if (row < 0 || row >= rows)
+      throw new IndexOutOfBoundsException("Row " + row + " is not in a catalog of " + rows);
+    return new MappedSong(row);
+  }
+
+  /**
+   * @return views of every row, in natural order. Views are created as they are requested
+   */
+  public List<SongInterface> songs() {
+    return new AbstractList<SongInterface>() {
+      public SongInterface get(int row) {
+        return MappedSongCatalog.this.get(row);
+      }
+
+      public int size() {
+        return rows;
+      }
+    };
+  }
+
+  private int intAt(SongAttribute attribute, int row) {
+    return buffer.getInt((int) (HEADER_SIZE + 4L * ((long) attribute.ordinal() * rows + row)));
+  }
+
+  // the heap offset of one of the strings of a row; equal strings share one offset
+  private int stringReference(int row, int field) {
+    return buffer.getInt((int) (stringsOffset + 4L * (row * STRING_FIELDS + field)));
+  }
+
+  private String stringAt(int row, int field) {
+    int offset = (int) (heapOffset + stringReference(row, field));
+    byte[] bytes = new byte[buffer.getInt(offset)];
+    buffer.get(offset + 4, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * A song that is decoded from the mapped file each time one of its getters is called
+   */
+  private class MappedSong implements SongInterface {
+    private final int row;
+
+    MappedSong(int row) {
+      this.row = row;
+    }
+
+    public String getTitle() {
+      return stringAt(row, 0);
+    }
+
+    public String getArtist() {
+      return stringAt(row, 1);
+    }
+
+    public String getGenres() {
+      return stringAt(row, 2);
+    }
+
+    public int getYear() {
+      return intAt(SongAttribute.YEAR, row);
+    }
+
+    public int getBPM() {
+      return intAt(SongAttribute.BPM, row);
+    }
+
+    public int getEnergy() {
+      return intAt(SongAttribute.ENERGY, row);
+    }
+
+    public int getDanceability() {
+      return intAt(SongAttribute.DANCEABILITY, row);
+    }
+
+    public int getLoudness() {
+      return intAt(SongAttribute.LOUDNESS, row);
+    }
+
+    public int getLiveness() {
+      return intAt(SongAttribute.LIVENESS, row);
+    }
+
+    public int getValence() {
+      return intAt(SongAttribute.VALENCE, row);
+    }
+
+    public int getDuration() {
+      return intAt(SongAttribute.DURATION, row);
+    }
+
+    public int getAcousticness() {
+      return intAt(SongAttribute.ACOUSTICNESS, row);
+    }
+
+    public int getSpeechiness() {
+      return intAt(SongAttribute.SPEECHINESS, row);
+    }
+
+    public int getPopularity() {
+      return intAt(SongAttribute.POPULARITY, row);
+    }
+
+    // orders songs by liveness, breaking ties by title, like Song. Rows of the same catalog are
+    // stored in that order and each distinct title is stored once, so two rows with the same
+    // liveness have equal titles exactly when they point at the same title, and otherwise compare
+    // like their row numbers, without decoding either title
+    public int compareTo(SongInterface b) {
+      if (b instanceof MappedSong other && other.catalog() == MappedSongCatalog.this) {
+        if (row == other.row || (getLiveness() == other.getLiveness()
+            && stringReference(row, 0) == stringReference(other.row, 0)))
+          return 0;
+        return Integer.compare(row, other.row);
+      }
+      int compare = Integer.compare(getLiveness(), b.getLiveness());
+      if (compare != 0) {
+        return compare;
+      }
+      return getTitle().compareTo(b.getTitle());
+    }
+
+    private MappedSongCatalog catalog() {
+      return MappedSongCatalog.this;
+    }
+  }
+}
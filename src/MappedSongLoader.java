@@ -0,0 +1,160 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Loads songs.csv style files by memory-mapping them and parsing chunks of the file on separate
+ * threads. Chunks always start right after a line break that is outside of a quoted field, so a
+ * title like "Hey, Soul Sister" is never cut in half.
+ *
+ * Works for any charset in which '"' and '\n' are single bytes that never appear inside another
+ * character (ISO-8859-1, UTF-8, ...).
+ */
+public class MappedSongLoader {
+  // largest region that can be mapped at once
+  private static final long MAX_CHUNK = 1 << 30;
+
+  private final Path file;
+  private final Charset charset;
+  private final int chunks;
+
+  /**
+   * @param filename the csv file to load, including its header row
+   * @param charset the encoding of the file
+   * @param chunks the number of pieces to split the file into, usually the number of cores
+   */
+  public MappedSongLoader(String filename, Charset charset, int chunks) {
+    if (chunks < 1)
+      throw new IllegalArgumentException("chunks must be positive");
+    this.file = Path.of(filename);
+    this.charset = charset;
+    this.chunks = chunks;
+  }
+
+  /**
+   * Parses every record in the file (skipping the header)
+   * @return the songs in the same order as they appear in the file
+   * @throws IOException when there is trouble reading the file or a record is malformed
+   */
+  public List<Song> load() throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      int count = (int) Math.max(chunks, (size + MAX_CHUNK - 1) / MAX_CHUNK);
+      if (size < count)
+        count = 1;
+
+      // split evenly by size first, then move every split to the next line break outside quotes
+      long[] bounds = new long[count + 1];
+      for (int i = 0; i <= count; i++)
+        bounds[i] = size * i / count;
+      long[] starts = alignToRecords(channel, bounds);
+
+      List<List<Song>> parsed;
+      try {
+        parsed = IntStream.range(0, starts.length - 1).parallel()
+            .mapToObj(i -> parseChunk(channel, starts[i], starts[i + 1], i == 0))
+            .toList();
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      }
+
+      int total = 0;
+      for (List<Song> songs : parsed)
+        total += songs.size();
+      List<Song> output = new ArrayList<>(total);
+      for (List<Song> songs : parsed)
+        output.addAll(songs);
+      return output;
+    }
+  }
+
+  /**
+   * Scans each evenly sized range in parallel to find where records can safely start.
+   *
+   * Whether a line break is inside a quoted field depends on the number of quotes before it in
+   * the whole file. Each range therefore records its own quote parity and its first line break
+   * under both possible starting parities; a running parity over the ranges then picks the right
+   * one without a sequential pass over the bytes.
+   *
+   * @param bounds count + 1 evenly spaced offsets, starting at 0 and ending at the file size
+   * @return the offsets where chunks start, ending with the file size. Ranges without a usable
+   *     line break are merged into the previous chunk
+   */
+  private static long[] alignToRecords(FileChannel channel, long[] bounds) throws IOException {
+    int count = bounds.length - 1;
+    // [parity of quotes in range, first break at even parity, first break at odd parity]
+    long[][] scans;
+    try {
+      scans = IntStream.range(0, count).parallel()
+          .mapToObj(i -> scanRange(channel, bounds[i], bounds[i + 1]))
+          .toArray(long[][]::new);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    List<Long> starts = new ArrayList<>();
+    starts.add(0L);
+    int parity = (int) scans[0][0];
+    for (int i = 1; i < count; i++) {
+      long lineBreak = scans[i][1 + parity];
+      if (lineBreak >= 0)
+        starts.add(lineBreak + 1);
+      parity ^= (int) scans[i][0];
+    }
+    starts.add(bounds[count]);
+
+    long[] output = new long[starts.size()];
+    for (int i = 0; i < output.length; i++)
+      output[i] = starts.get(i);
+    return output;
+  }
+
+  private static long[] scanRange(FileChannel channel, long start, long end) {
+    long[] scan = {0, -1, -1};
+    try {
+      MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      int quotes = 0;
+      for (int i = 0, length = bytes.limit(); i < length; i++) {
+        byte b = bytes.get(i);
+        if (b == '"') {
+          quotes ^= 1;
+        } else if (b == '\n' && scan[1 + quotes] < 0) {
+          scan[1 + quotes] = start + i;
+        }
+      }
+      scan[0] = quotes;
+      return scan;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private List<Song> parseChunk(FileChannel channel, long start, long end, boolean hasHeader) {
+    try {
+      if (end - start > Integer.MAX_VALUE)
+        throw new IOException("Record spanning offset " + start + " is too long to map");
+      MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+      CharBuffer chars = charset.decode(bytes);
+
+      SongCsvReader reader = new SongCsvReader(chars.array(),
+          chars.arrayOffset() + chars.position(), chars.remaining());
+      if (hasHeader)
+        reader.skipRecord();
+      List<Song> songs = new ArrayList<>();
+      for (Song song = reader.next(); song != null; song = reader.next())
+        songs.add(song);
+      return songs;
+    } catch (IOException e) {
+      throw new UncheckedIOException(
+          new IOException("In chunk starting at byte " + start + ": " + e.getMessage(), e));
+    }
+  }
+}
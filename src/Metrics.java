@@ -0,0 +1,169 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and latency histograms for the backend and the trees. Metrics are off
+ * by default (or on with -Dsongify.metrics=true) and can be switched at any time with
+ * setEnabled(). While they are off, every hook costs a single read of a volatile flag: counters
+ * skip their increment and start() returns 0 so that no clock is read.
+ *
+ * Counters are LongAdders, so threads that record at the same time do not contend.
+ */
+public final class Metrics {
+  private static volatile boolean enabled = Boolean.getBoolean("songify.metrics");
+
+  /**
+   * A counter that only counts while metrics are enabled
+   */
+  public static final class Counter {
+    private final LongAdder adder = new LongAdder();
+
+    public void increment() {
+      if (enabled)
+        adder.increment();
+    }
+
+    public void add(long amount) {
+      if (enabled)
+        adder.add(amount);
+    }
+
+    public long get() {
+      return adder.sum();
+    }
+  }
+
+  /**
+   * The latest value of something that is measured rather than counted
+   */
+  public static final class Gauge {
+    private final AtomicLong value = new AtomicLong();
+
+    public void set(long value) {
+      if (enabled)
+        this.value.set(value);
+    }
+
+    public long get() {
+      return value.get();
+    }
+  }
+
+  /**
+   * A latency histogram that times calls while metrics are enabled
+   */
+  public static final class Timer {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    /**
+     * Records the time since start, unless start is 0 because metrics were disabled
+     * @param start the value returned by Metrics.start()
+     */
+    public void recordSince(long start) {
+      if (start != 0)
+        histogram.record(System.nanoTime() - start);
+    }
+
+    public LatencyHistogram getHistogram() {
+      return histogram;
+    }
+  }
+
+  public static final Counter TREE_INSERTS = new Counter();
+  public static final Counter TREE_REMOVES = new Counter();
+  public static final Counter TREE_ROTATIONS = new Counter();
+  public static final Counter ITERATORS = new Counter();
+  public static final Counter ITERATOR_NODES = new Counter();
+  public static final Counter ROWS_LOADED = new Counter();
+  public static final Gauge TREE_SIZE = new Gauge();
+  public static final Gauge TREE_HEIGHT = new Gauge();
+  public static final Timer READ_DATA = new Timer();
+  public static final Timer GET_RANGE = new Timer();
+  public static final Timer FIVE_LOUDEST = new Timer();
+
+  private Metrics() {
+  }
+
+  public static boolean isEnabled() {
+    return enabled;
+  }
+
+  public static void setEnabled(boolean enabled) {
+    Metrics.enabled = enabled;
+  }
+
+  /**
+   * @return the current time for a Timer to measure from, or 0 when metrics are disabled
+   */
+  public static long start() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  /**
+   * @return every metric by name, in a fixed order. Timers are summarized by their count,
+   *     median, 99th percentile and maximum in nanoseconds
+   */
+  public static Map<String, Number> snapshot() {
+    Map<String, Number> snapshot = new LinkedHashMap<>();
+    snapshot.put("load.rows", ROWS_LOADED.get());
+    long loadNanos = READ_DATA.getHistogram().total();
+    snapshot.put("load.rowsPerSecond", loadNanos == 0 ? 0 : ROWS_LOADED.get() * 1e9 / loadNanos);
+    snapshot.put("tree.size", TREE_SIZE.get());
+    snapshot.put("tree.height", TREE_HEIGHT.get());
+    snapshot.put("tree.inserts", TREE_INSERTS.get());
+    snapshot.put("tree.removes", TREE_REMOVES.get());
+    snapshot.put("tree.rotations", TREE_ROTATIONS.get());
+    snapshot.put("tree.rotationsPerInsert", ratio(TREE_ROTATIONS.get(), TREE_INSERTS.get()));
+    snapshot.put("iterator.created", ITERATORS.get());
+    snapshot.put("iterator.nodesVisited", ITERATOR_NODES.get());
+    snapshot.put("iterator.nodesPerIterator", ratio(ITERATOR_NODES.get(), ITERATORS.get()));
+    summarize(snapshot, "backend.readData", READ_DATA);
+    summarize(snapshot, "backend.getRange", GET_RANGE);
+    summarize(snapshot, "backend.fiveLoudest", FIVE_LOUDEST);
+    return snapshot;
+  }
+
+  private static double ratio(long count, long per) {
+    return per == 0 ? 0 : (double) count / per;
+  }
+
+  private static void summarize(Map<String, Number> snapshot, String name, Timer timer) {
+    LatencyHistogram histogram = timer.getHistogram();
+    snapshot.put(name + ".count", histogram.count());
+    snapshot.put(name + ".p50Nanos", histogram.percentile(50));
+    snapshot.put(name + ".p99Nanos", histogram.percentile(99));
+    snapshot.put(name + ".maxNanos", histogram.max());
+  }
+
+  /**
+   * @return the snapshot as one "name: value" line per metric
+   */
+  public static String format() {
+    StringBuilder output = new StringBuilder();
+    for (Map.Entry<String, Number> each : snapshot().entrySet()) {
+      Number value = each.getValue();
+      output.append(each.getKey()).append(": ");
+      if (value instanceof Double)
+        output.append(String.format("%.2f", value.doubleValue()));
+      else
+        output.append(value);
+      output.append('\n');
+    }
+    return output.toString();
+  }
+
+  /**
+   * Sets every metric back to 0
+   */
+  public static void reset() {
+    for (Counter counter : new Counter[] {TREE_INSERTS, TREE_REMOVES, TREE_ROTATIONS, ITERATORS,
+        ITERATOR_NODES, ROWS_LOADED})
+      counter.adder.reset();
+    TREE_SIZE.value.set(0);
+    TREE_HEIGHT.value.set(0);
+    for (Timer timer : new Timer[] {READ_DATA, GET_RANGE, FIVE_LOUDEST})
+      timer.histogram.reset();
+  }
+}
@@ -35,36 +35,34 @@ public class RedBlackTree<T extends Comparable<T>> extends BinarySearchTree<T> {
      * @param child the node which is the basis for investigation for RBT property violations
      */
     protected void enforceRBTreePropertiesAfterInsert(RBTNode child) {
-        // Instantiates parent if child isn't null, which case the method terminates
-        if (child == null)
-            return;
-        RBTNode parent = child.getUp();
-
-        // Instantiates grandparent if child isn't null, which case the method terminates
-        // Also terminates if parent is red since there's no need to continue if parent is black as no repair
-        // operations are needed
-        if (parent == null || parent.isBlack)
-            return;
-
-        RBTNode grandparent = parent.getUp();
-
-        // Instantiates aunt and helpful booleans if child isn't null, which case the method terminates
-        if (grandparent == null)
-            return;
-        boolean isParentLeft = grandparent.getDownLeft() == parent;
-        boolean isNewNodeLeft = parent.getDownLeft() == child;
-        RBTNode aunt = isParentLeft ? grandparent.getDownRight() : grandparent.getDownLeft();
-
-        // Recolors and checks up
-        if (aunt != null && !aunt.isBlack) {
-            parent.isBlack = true;
-            grandparent.isBlack = false;
-            aunt.isBlack = true;
+        // Walks up the tree while a red node has a red parent; each recoloring moves the violation
+        // to the grandparent, and a rotation ends it
+        while (child != null) {
+            RBTNode parent = child.getUp();
+
+            // Terminates if there is no parent or the parent is black as no repair operations are needed
+            if (parent == null || parent.isBlack)
+                return;
+
+            RBTNode grandparent = parent.getUp();
+
+            // Instantiates aunt and helpful booleans if grandparent isn't null, which case the method terminates
+            if (grandparent == null)
+                return;
+            boolean isParentLeft = grandparent.getDownLeft() == parent;
+            boolean isNewNodeLeft = parent.getDownLeft() == child;
+            RBTNode aunt = isParentLeft ? grandparent.getDownRight() : grandparent.getDownLeft();
+
+            // Recolors and checks up
+            if (aunt != null && !aunt.isBlack) {
+                parent.isBlack = true;
+                grandparent.isBlack = false;
+                aunt.isBlack = true;
 
-            enforceRBTreePropertiesAfterInsert(grandparent);
-        }
-        // Rotates and recolors
-        else {
+                child = grandparent;
+                continue;
+            }
+            // Rotates and recolors
             // One right/left rotation
             if (!(isParentLeft ^ isNewNodeLeft)) {
                 rotate(parent, grandparent);
@@ -77,6 +75,7 @@ public class RedBlackTree<T extends Comparable<T>> extends BinarySearchTree<T> {
                 child.isBlack = true;
             }
             grandparent.isBlack = false;
+            return;
         }
     }
 
@@ -89,12 +88,119 @@ public class RedBlackTree<T extends Comparable<T>> extends BinarySearchTree<T> {
 
         if (!insertHelper(newNode))
             return false;
+        Metrics.TREE_INSERTS.increment();
 
         enforceRBTreePropertiesAfterInsert(newNode);
 
         return ((RBTNode) root).isBlack = true;
     }
 
+    /**
+     * Removes node like BinarySearchTree.removeNode(), then recolors and rotates to restore the RBT properties.
+     * Removing a red node never breaks them. Removing a black node leaves the path through its child one black
+     * node short, which is repaired by enforceRBTreePropertiesAfterRemove().
+     *
+     * @param node the node holding the value to remove
+     * @return the node that was unlinked from the tree
+     */
+    @Override
+    protected Node<T> removeNode(Node<T> node) {
+        RBTNode<T> removed = (RBTNode<T>) super.removeNode(node);
+        if (removed.isBlack) {
+            RBTNode<T> child = removed.getDownLeft() != null ? removed.getDownLeft() : removed.getDownRight();
+            enforceRBTreePropertiesAfterRemove(child, removed.getUp());
+        }
+        return removed;
+    }
+
+    /**
+     * After a black node is removed, this method is called to make up for the black node missing from every path
+     * through the position it was removed from.
+     *
+     * @param node the node that took the removed node's place, or null if it had no children
+     * @param parent the parent of that position, or null if it is the root
+     */
+    protected void enforceRBTreePropertiesAfterRemove(RBTNode<T> node, RBTNode<T> parent) {
+        // A red node can just be colored black. Otherwise the missing black node is pushed up the tree until it
+        // reaches a red node or the root, or is fixed with rotations
+        while (node != root && isBlack(node)) {
+            // node may be null, but then its sibling cannot be, since the sibling's side still has a black node
+            boolean isLeft = node != null ? parent.getDownLeft() == node : parent.getDownLeft() == null;
+            RBTNode<T> sibling = isLeft ? parent.getDownRight() : parent.getDownLeft();
+
+            // A red sibling is rotated up so that node gets a black sibling
+            if (!sibling.isBlack) {
+                sibling.isBlack = true;
+                parent.isBlack = false;
+                rotate(sibling, parent);
+                sibling = isLeft ? parent.getDownRight() : parent.getDownLeft();
+            }
+
+            RBTNode<T> near = isLeft ? sibling.getDownLeft() : sibling.getDownRight();
+            RBTNode<T> far = isLeft ? sibling.getDownRight() : sibling.getDownLeft();
+            if (isBlack(near) && isBlack(far)) {
+                // Recolors the sibling so both sides are short, and checks up
+                sibling.isBlack = false;
+                node = parent;
+                parent = node.getUp();
+            } else {
+                // Rotates a red nephew to the far side, then rotates the sibling up over the parent
+                if (isBlack(far)) {
+                    near.isBlack = true;
+                    sibling.isBlack = false;
+                    rotate(near, sibling);
+                    far = sibling;
+                    sibling = near;
+                }
+                sibling.isBlack = parent.isBlack;
+                parent.isBlack = true;
+                far.isBlack = true;
+                rotate(sibling, parent);
+                return;
+            }
+        }
+        if (node != null)
+            node.isBlack = true;
+    }
+
+    /**
+     * @return true if node is black, counting null leaves as black
+     */
+    private static boolean isBlack(RBTNode<?> node) {
+        return node == null || node.isBlack;
+    }
+
+    /**
+     * Checks the red-black properties of the subtree rooted at node
+     *
+     * @return the number of black nodes on every path from node down to a null child, or -1 if the subtree breaks
+     * a red-black or binary search tree property or has a wrong subtree size
+     */
+    protected static <R extends Comparable<R>> int blackHeight(Node<R> node) {
+        if (node == null)
+            return 1;
+        RBTNode<R> rbtNode = (RBTNode<R>) node;
+        for (int i = 0; i < 2; i++) {
+            RBTNode<R> child = (RBTNode<R>) node.down[i];
+            if (child == null)
+                continue;
+            if (child.up != node || (!rbtNode.isBlack && !child.isBlack))
+                return -1;
+            int compare = child.data.compareTo(node.data);
+            if (i == 0 ? compare > 0 : compare < 0)
+                return -1;
+        }
+
+        if (node.subtreeSize != subtreeSize(node.down[0]) + subtreeSize(node.down[1]) + 1)
+            return -1;
+
+        int left = blackHeight(node.down[0]);
+        int right = blackHeight(node.down[1]);
+        if (left == -1 || left != right)
+            return -1;
+        return left + (rbtNode.isBlack ? 1 : 0);
+    }
+
     /**
      * Tests the recoloring operation without any rotations
      */
@@ -187,4 +293,91 @@ public class RedBlackTree<T extends Comparable<T>> extends BinarySearchTree<T> {
                 && rootNode.getDownRight().isBlack && !rootNode.getDownLeft().getDownLeft().isBlack
                 && !rootNode.getDownLeft().getDownRight().isBlack);
     }
+
+    /**
+     * Tests removing leaves, nodes with one child, nodes with two children and the root, checking the RBT
+     * properties after every removal
+     */
+    @Test
+    public void testRemove() {
+        RedBlackTree<Integer> testTree = new RedBlackTree<>();
+        java.util.List<Integer> values = new java.util.ArrayList<>();
+        for (int i = 0; i < 500; i++)
+            values.add(i);
+        java.util.Collections.shuffle(values, new java.util.Random(400));
+        for (Integer value : values)
+            testTree.insert(value);
+
+        Assertions.assertFalse(testTree.remove(500));
+        java.util.Collections.shuffle(values, new java.util.Random(401));
+        for (int i = 0; i < values.size(); i++) {
+            if (i % 5 == 0 && testTree.root != null)
+                Assertions.assertTrue(testTree.remove(testTree.root.data));
+            Assertions.assertEquals(testTree.contains(values.get(i)), testTree.remove(values.get(i)));
+            Assertions.assertFalse(testTree.contains(values.get(i)));
+            Assertions.assertTrue(blackHeight(testTree.root) != -1);
+            Assertions.assertTrue(testTree.root == null || ((RBTNode<Integer>) testTree.root).isBlack);
+        }
+        Assertions.assertTrue(testTree.isEmpty());
+        Assertions.assertEquals("[  ]", testTree.toInOrderString());
+    }
+
+    /**
+     * Tests pollFirst() and pollLast() down to an empty tree, and replace() both in place and by moving the value
+     */
+    @Test
+    public void testPollAndReplace() {
+        RedBlackTree<Integer> testTree = new RedBlackTree<>();
+        for (int i = 0; i < 100; i += 2)
+            testTree.insert(i);
+
+        // 11 fits between 10's neighbors 8 and 12 and is stored in place, 51 has to be moved
+        Assertions.assertTrue(testTree.replace(10, 11));
+        Assertions.assertTrue(testTree.replace(20, 51));
+        Assertions.assertFalse(testTree.replace(21, 23));
+        Assertions.assertFalse(testTree.replace(30, 40));
+        Assertions.assertTrue(testTree.contains(30) && testTree.contains(40));
+        Assertions.assertTrue(testTree.contains(11) && testTree.contains(51));
+        Assertions.assertFalse(testTree.contains(10) || testTree.contains(20));
+        Assertions.assertEquals(50, testTree.size());
+        Assertions.assertTrue(blackHeight(testTree.root) != -1);
+
+        int expectedFirst = 0;
+        int expectedLast = 98;
+        for (int i = 0; i < 25; i++) {
+            int first = testTree.pollFirst();
+            int last = testTree.pollLast();
+            Assertions.assertTrue(first >= expectedFirst && last <= expectedLast);
+            expectedFirst = first;
+            expectedLast = last;
+            Assertions.assertTrue(blackHeight(testTree.root) != -1);
+        }
+        Assertions.assertTrue(testTree.isEmpty());
+        Assertions.assertNull(testTree.pollFirst());
+        Assertions.assertNull(testTree.pollLast());
+    }
+
+    /**
+     * Inserts many ascending keys, which repairs the tree all the way up to the root over and over,
+     * and checks that it stays balanced and lists every key in order
+     */
+    @Test
+    public void testSortedInsert() {
+        RedBlackTree<Integer> testTree = new RedBlackTree<>();
+        int n = 100_000;
+        for (int i = 0; i < n; i++)
+            testTree.insert(i);
+        Assertions.assertEquals(n, testTree.size());
+        Assertions.assertTrue(blackHeight(testTree.root) != -1);
+        Assertions.assertTrue(testTree.height() <= 2 * (32 - Integer.numberOfLeadingZeros(n)));
+        String inOrder = testTree.toInOrderString();
+        Assertions.assertTrue(inOrder.startsWith("[ 0, 1, 2, ") && inOrder.endsWith(", " + (n - 1) + " ]"));
+
+        // without balancing the tree is a list, deeper than the stack toInOrderString() starts with
+        BinarySearchTree<Integer> list = new BinarySearchTree<>();
+        for (int i = 0; i < 100; i++)
+            list.insert(i);
+        Assertions.assertEquals(100, list.height());
+        Assertions.assertTrue(list.toInOrderString().endsWith(", 98, 99 ]"));
+    }
 }
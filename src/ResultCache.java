@@ -0,0 +1,90 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded cache of query results that evicts the least recently used entry when it is
+ * full. Results are tied to a generation: the owner bumps its generation whenever the data the
+ * results were computed from changes, and every result from an older generation is then dropped
+ * on the next lookup, so a stale result is never returned.
+ *
+ * Not thread-safe; like Backend, an instance is meant to be used by one thread.
+ */
+public class ResultCache<K, V> {
+  private final int capacity;
+  private final LinkedHashMap<K, V> entries;
+  private long generation = 0;
+  private long hits = 0;
+  private long misses = 0;
+
+  /**
+   * @param capacity the maximum number of results to keep
+   * @throws IllegalArgumentException when capacity is negative
+   */
+  public ResultCache(int capacity) {
+    if (capacity < 0)
+      throw new IllegalArgumentException("capacity must not be negative");
+    this.capacity = capacity;
+    // access order makes the first entry the least recently used one
+    this.entries = new LinkedHashMap<K, V>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+        return size() > ResultCache.this.capacity;
+      }
+    };
+  }
+
+  /**
+   * @param key the normalized query
+   * @param generation the current generation of the data
+   * @return the cached result, or null if there is none for this generation
+   */
+  public V get(K key, long generation) {
+    sync(generation);
+    V value = entries.get(key);
+    if (value == null)
+      misses++;
+    else
+      hits++;
+    return value;
+  }
+
+  /**
+   * Caches a result, evicting the least recently used one if the cache is full
+   * @param key the normalized query
+   * @param value the result, which must not be changed afterwards
+   * @param generation the generation of the data the result was computed from
+   */
+  public void put(K key, V value, long generation) {
+    sync(generation);
+    entries.put(key, value);
+  }
+
+  // drops every result of an older generation
+  private void sync(long generation) {
+    if (generation != this.generation) {
+      entries.clear();
+      this.generation = generation;
+    }
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the number of lookups that found a result
+   */
+  public long getHits() {
+    return hits;
+  }
+
+  /**
+   * @return the number of lookups that did not find a result
+   */
+  public long getMisses() {
+    return misses;
+  }
+}
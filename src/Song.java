@@ -1,64 +1,141 @@
-import java.util.ArrayList;
+import java.util.List;
 
+/**
+ * Immutable song record. All 14 columns of a songs.csv row are parsed once when the song is
+ * created, so the getters (and compareTo, which runs on every tree comparison) never re-parse.
+ */
 public class Song implements SongInterface{
-  private ArrayList<String> attributes;
-  
-  
-  public Song(ArrayList<String> attributes) {
-    this.attributes = attributes;
+  // number of columns in a songs.csv row
+  public static final int FIELD_COUNT = 14;
+
+  private final String title;
+  private final String artist;
+  private final String genres;
+  private final int year;
+  private final int bpm;
+  private final int energy;
+  private final int danceability;
+  private final int loudness;
+  private final int liveness;
+  private final int valence;
+  private final int duration;
+  private final int acousticness;
+  private final int speechiness;
+  private final int popularity;
+
+  /**
+   * Creates a song from the (already unquoted) fields of a songs.csv row
+   * @param attributes the 14 fields of the row, in file order
+   * @throws IllegalArgumentException when there are not exactly 14 fields
+   * @throws NumberFormatException when a numeric field is not an integer
+   */
+  public Song(List<String> attributes) {
+    this(checkCount(attributes).get(0), attributes.get(1), attributes.get(2),
+        Integer.parseInt(attributes.get(3)), Integer.parseInt(attributes.get(4)),
+        Integer.parseInt(attributes.get(5)), Integer.parseInt(attributes.get(6)),
+        Integer.parseInt(attributes.get(7)), Integer.parseInt(attributes.get(8)),
+        Integer.parseInt(attributes.get(9)), Integer.parseInt(attributes.get(10)),
+        Integer.parseInt(attributes.get(11)), Integer.parseInt(attributes.get(12)),
+        Integer.parseInt(attributes.get(13)));
+  }
+
+  public Song(String title, String artist, String genres, int year, int bpm, int energy,
+      int danceability, int loudness, int liveness, int valence, int duration, int acousticness,
+      int speechiness, int popularity) {
+    this.title = title;
+    // artists and genres repeat across many rows, so share one instance of each
+    this.artist = artist.intern();
+    this.genres = genres.intern();
+    this.year = year;
+    this.bpm = bpm;
+    this.energy = energy;
+    this.danceability = danceability;
+    this.loudness = loudness;
+    this.liveness = liveness;
+    this.valence = valence;
+    this.duration = duration;
+    this.acousticness = acousticness;
+    this.speechiness = speechiness;
+    this.popularity = popularity;
+  }
+
+  private static List<String> checkCount(List<String> attributes) {
+    if (attributes.size() != FIELD_COUNT)
+      throw new IllegalArgumentException("Expected " + FIELD_COUNT + " fields but found "
+          + attributes.size());
+    return attributes;
   }
+
   public String getTitle() {
     // returns this song's title
-    return attributes.get(0);
+    return title;
   }
 
   public String getArtist() {
     // returns this song's artist
-    return attributes.get(1);
+    return artist;
   }
 
   public String getGenres() {
     // returns string containing each of this song's genres
-    return attributes.get(2);
+    return genres;
   }
 
   public int getYear() {
     // returns this song's year in the Billboard
-    return Integer.parseInt(attributes.get(3));
+    return year;
   }
 
   public int getBPM() {
     // returns this song's speed/tempo in beats per minute
-    return Integer.parseInt(attributes.get(4));
+    return bpm;
   }
 
   public int getEnergy() {
     // returns this song's energy rating
-    return Integer.parseInt(attributes.get(5));
+    return energy;
   }
 
   public int getDanceability() {
     // returns this song's danceability rating
-    return Integer.parseInt(attributes.get(6));
+    return danceability;
   }
 
   public int getLoudness() {
     // returns this song's loudness in dB
-    return Integer.parseInt(attributes.get(7));
+    return loudness;
   }
 
   public int getLiveness() {
-    return Integer.parseInt(attributes.get(8));
+    return liveness;
   }
-  
-  // dont know what to compare yet
+
+  public int getValence() {
+    return valence;
+  }
+
+  public int getDuration() {
+    return duration;
+  }
+
+  public int getAcousticness() {
+    return acousticness;
+  }
+
+  public int getSpeechiness() {
+    return speechiness;
+  }
+
+  public int getPopularity() {
+    return popularity;
+  }
+
+  // orders songs by liveness, breaking ties by title
   public int compareTo(SongInterface b) {
-    if (this.getLiveness() > b.getLiveness()) {
-      return 1;
-    }
-    else if (this.getLiveness() < b.getLiveness()){
-      return -1;
+    int compare = Integer.compare(this.liveness, b.getLiveness());
+    if (compare != 0) {
+      return compare;
     }
-    return this.getTitle().compareTo(b.getTitle());
+    return this.title.compareTo(b.getTitle());
   }
 }
@@ -0,0 +1,42 @@
+import java.util.function.ToIntFunction;
+
+/**
+ * The numeric attributes of a song, named after their songs.csv columns. Lets code that filters,
+ * indexes or ranks songs work with any attribute instead of hard-coding getters.
+ */
+public enum SongAttribute {
+  YEAR("year", SongInterface::getYear),
+  BPM("bpm", SongInterface::getBPM),
+  ENERGY("nrgy", SongInterface::getEnergy),
+  DANCEABILITY("dnce", SongInterface::getDanceability),
+  LOUDNESS("dB", SongInterface::getLoudness),
+  LIVENESS("live", SongInterface::getLiveness),
+  VALENCE("val", SongInterface::getValence),
+  DURATION("dur", SongInterface::getDuration),
+  ACOUSTICNESS("acous", SongInterface::getAcousticness),
+  SPEECHINESS("spch", SongInterface::getSpeechiness),
+  POPULARITY("pop", SongInterface::getPopularity);
+
+  private final String column;
+  private final ToIntFunction<SongInterface> getter;
+
+  SongAttribute(String column, ToIntFunction<SongInterface> getter) {
+    this.column = column;
+    this.getter = getter;
+  }
+
+  /**
+   * @return the header of this attribute's column in songs.csv
+   */
+  public String getColumn() {
+    return column;
+  }
+
+  /**
+   * @param song the song to read from
+   * @return the value of this attribute for song
+   */
+  public int of(SongInterface song) {
+    return getter.applyAsInt(song);
+  }
+}
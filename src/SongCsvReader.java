@@ -0,0 +1,236 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Streaming reader for songs.csv style files. Records are parsed in a single pass over the
+ * characters (RFC 4180 quoting, including escaped "" inside quoted fields) directly into Song
+ * objects, without splitting lines or building a temporary list of fields.
+ */
+public class SongCsvReader implements Closeable {
+  private static final int BUFFER_SIZE = 1 << 16;
+  // number of leading text columns (title, artist, top genre); the rest are integers
+  private static final int TEXT_FIELDS = 3;
+
+  private final Reader in; // null when reading from a fixed buffer
+  private final char[] buffer;
+  private int position;
+  private int limit;
+  private long record = 0; // number of records read so far, used in error messages
+
+  // scratch space reused between records
+  private final StringBuilder field = new StringBuilder();
+  private final String[] text = new String[TEXT_FIELDS];
+  private final int[] numbers = new int[Song.FIELD_COUNT - TEXT_FIELDS];
+
+  /**
+   * Creates a reader that pulls characters from in as they are needed
+   * @param in the source of the csv text
+   */
+  public SongCsvReader(Reader in) {
+    this.in = in;
+    this.buffer = new char[BUFFER_SIZE];
+  }
+
+  /**
+   * Creates a reader over a fixed range of characters that are already in memory
+   * @param buffer holds the csv text
+   * @param offset index of the first character to read
+   * @param length number of characters to read
+   */
+  public SongCsvReader(char[] buffer, int offset, int length) {
+    this.in = null;
+    this.buffer = buffer;
+    this.position = offset;
+    this.limit = offset + length;
+  }
+
+  /**
+   * Skips over the next record without parsing it, e.g. the header row
+   * @return false if there was no record left to skip
+   * @throws IOException when the underlying reader fails
+   */
+  public boolean skipRecord() throws IOException {
+    int c = read();
+    if (c == -1)
+      return false;
+    boolean quoted = false;
+    while (c != -1 && (quoted || (c != '\n' && c != '\r'))) {
+      if (c == '"')
+        quoted = !quoted;
+      c = read();
+    }
+    return true;
+  }
+
+  /**
+   * Reads and parses the next record. Blank lines are skipped.
+   * @return the next song, or null when the end of the input has been reached
+   * @throws IOException when the underlying reader fails or the record is malformed
+   */
+  public Song next() throws IOException {
+    if (!parseRecord())
+      return null;
+    return new Song(text[0], text[1], text[2], numbers[0], numbers[1], numbers[2], numbers[3],
+        numbers[4], numbers[5], numbers[6], numbers[7], numbers[8], numbers[9], numbers[10]);
+  }
+
+  /**
+   * Reads and parses the next record straight into a new row of table, without creating a Song.
+   * Blank lines are skipped.
+   * @param table the table to append the record to
+   * @return false when the end of the input has been reached
+   * @throws IOException when the underlying reader fails or the record is malformed
+   */
+  public boolean nextInto(SongTable table) throws IOException {
+    if (!parseRecord())
+      return false;
+    table.add(text[0], text[1], text[2], numbers);
+    return true;
+  }
+
+  /**
+   * Parses the next record into this.text and this.numbers
+   * @return false when the end of the input has been reached
+   */
+  private boolean parseRecord() throws IOException {
+    int c = read();
+    while (c == '\n' || c == '\r')
+      c = read();
+    if (c == -1)
+      return false;
+    record++;
+
+    int index = 0;
+    while (true) {
+      if (index == Song.FIELD_COUNT)
+        throw error("more than " + Song.FIELD_COUNT + " fields");
+      if (index < TEXT_FIELDS) {
+        c = readText(c);
+        text[index] = field.toString();
+      } else {
+        c = readNumber(c, index - TEXT_FIELDS);
+      }
+      index++;
+
+      if (c != ',')
+        break; // end of line or end of input
+      c = read();
+    }
+    if (index != Song.FIELD_COUNT)
+      throw error("expected " + Song.FIELD_COUNT + " fields but found " + index);
+    return true;
+  }
+
+  /**
+   * Reads a text field into this.field
+   * @param c the first character of the field
+   * @return the character that ended the field (',', a line break, or -1)
+   */
+  private int readText(int c) throws IOException {
+    field.setLength(0);
+    if (c == -1)
+      return c;
+    if (c != '"') {
+      // unquoted: copy runs of characters straight out of the buffer
+      position--;
+      while (true) {
+        int start = position;
+        while (position < limit) {
+          char next = buffer[position];
+          if (next == ',' || next == '\n' || next == '\r')
+            break;
+          position++;
+        }
+        field.append(buffer, start, position - start);
+        if (position < limit)
+          return buffer[position++];
+        if (!fill())
+          return -1;
+      }
+    }
+
+    // quoted: a doubled quote is an escaped quote, a single quote closes the field
+    while (true) {
+      c = read();
+      if (c == -1)
+        throw error("unterminated quoted field");
+      if (c == '"') {
+        c = read();
+        if (c != '"')
+          break;
+      }
+      field.append((char) c);
+    }
+    if (c != ',' && c != '\n' && c != '\r' && c != -1)
+      throw error("unexpected character after closing quote in \"" + field + "\"");
+    return c;
+  }
+
+  /**
+   * Parses an integer field straight into this.numbers
+   * @param c the first character of the field
+   * @param index the position to store the value in this.numbers
+   * @return the character that ended the field (',', a line break, or -1)
+   */
+  private int readNumber(int c, int index) throws IOException {
+    if (c == '"') {
+      // quoted numbers are legal csv, if unusual
+      c = readText(c);
+      try {
+        numbers[index] = Integer.parseInt(field.toString());
+      } catch (NumberFormatException e) {
+        throw error("\"" + field + "\" is not an integer");
+      }
+      return c;
+    }
+
+    boolean negative = c == '-';
+    if (negative)
+      c = read();
+    int value = 0;
+    int digits = 0;
+    while (c >= '0' && c <= '9' && digits < 10) {
+      value = value * 10 + (c - '0');
+      digits++;
+      c = read();
+    }
+    if (digits == 0 || digits == 10 || (c != ',' && c != '\n' && c != '\r' && c != -1))
+      throw error("expected an integer in field " + (index + TEXT_FIELDS + 1));
+    numbers[index] = negative ? -value : value;
+    return c;
+  }
+
+  private int read() throws IOException {
+    if (position == limit && !fill())
+      return -1;
+    return buffer[position++];
+  }
+
+  /**
+   * Refills the buffer from the underlying reader
+   * @return false when there is nothing left to read
+   */
+  private boolean fill() throws IOException {
+    if (in == null)
+      return false;
+    int count = in.read(buffer, 0, buffer.length);
+    while (count == 0)
+      count = in.read(buffer, 0, buffer.length);
+    if (count < 0)
+      return false;
+    position = 0;
+    limit = count;
+    return true;
+  }
+
+  private IOException error(String message) {
+    return new IOException("Malformed csv record " + record + ": " + message);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (in != null)
+      in.close();
+  }
+}
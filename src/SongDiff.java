@@ -0,0 +1,140 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The differences between the songs that are loaded and a new version of the catalog, with songs
+ * matched up by title and artist. A song that is only in the new version is inserted, one that is
+ * only loaded is deleted, and a matched song whose genres or attributes changed is updated.
+ *
+ * Applying a diff only touches the songs that changed, so refreshing a large catalog after a few
+ * rows changed costs a few tree removals and inserts instead of a full rebuild.
+ */
+public class SongDiff {
+  private static final SongAttribute[] ATTRIBUTES = SongAttribute.values();
+
+  private final List<SongInterface> inserted = new ArrayList<>();
+  private final List<SongInterface> deleted = new ArrayList<>();
+  // pairs of the loaded song and the song that replaces it
+  private final List<SongInterface[]> updated = new ArrayList<>();
+
+  private SongDiff() {
+  }
+
+  /**
+   * Matches up the songs of two versions of a catalog. When several songs share a title and
+   * artist, identical songs are matched first and the rest are paired in the order given.
+   * @param loaded the songs that are loaded now
+   * @param incoming the songs of the new version
+   * @return the changes that turn loaded into incoming
+   */
+  public static SongDiff between(Collection<? extends SongInterface> loaded,
+      Collection<? extends SongInterface> incoming) {
+    Map<List<String>, List<SongInterface>> remaining = new HashMap<>();
+    for (SongInterface song : loaded)
+      remaining.computeIfAbsent(key(song), key -> new ArrayList<>()).add(song);
+
+    SongDiff diff = new SongDiff();
+    List<SongInterface> changed = new ArrayList<>();
+    for (SongInterface song : incoming) {
+      List<SongInterface> candidates = remaining.get(key(song));
+      if (!removeSame(candidates, song))
+        changed.add(song);
+    }
+    for (SongInterface song : changed) {
+      List<SongInterface> candidates = remaining.get(key(song));
+      if (candidates == null || candidates.isEmpty())
+        diff.inserted.add(song);
+      else
+        diff.updated.add(new SongInterface[] {candidates.remove(0), song});
+    }
+    for (List<SongInterface> songs : remaining.values())
+      diff.deleted.addAll(songs);
+    return diff;
+  }
+
+  private static List<String> key(SongInterface song) {
+    return List.of(song.getTitle(), song.getArtist());
+  }
+
+  private static boolean removeSame(List<SongInterface> candidates, SongInterface song) {
+    if (candidates == null)
+      return false;
+    for (Iterator<SongInterface> iterator = candidates.iterator(); iterator.hasNext();) {
+      if (same(iterator.next(), song)) {
+        iterator.remove();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if a and b have the same title, artist, genres and attribute values
+   */
+  public static boolean same(SongInterface a, SongInterface b) {
+    if (!Objects.equals(a.getTitle(), b.getTitle()) || !Objects.equals(a.getArtist(), b.getArtist())
+        || !Objects.equals(a.getGenres(), b.getGenres()))
+      return false;
+    for (SongAttribute attribute : ATTRIBUTES)
+      if (attribute.of(a) != attribute.of(b))
+        return false;
+    return true;
+  }
+
+  /**
+   * Applies the changes to store: deleted songs and the old versions of updated songs are
+   * removed, then new and updated songs are inserted
+   * @param store the store holding the loaded songs that this diff was computed from
+   */
+  public void applyTo(IndexedSongStore store) {
+    for (SongInterface song : deleted)
+      store.remove(song);
+    for (SongInterface[] pair : updated) {
+      store.remove(pair[0]);
+      store.insert(pair[1]);
+    }
+    for (SongInterface song : inserted)
+      store.insert(song);
+  }
+
+  /**
+   * @return the songs that are only in the new version
+   */
+  public List<SongInterface> getInserted() {
+    return inserted;
+  }
+
+  /**
+   * @return the loaded songs that are not in the new version
+   */
+  public List<SongInterface> getDeleted() {
+    return deleted;
+  }
+
+  /**
+   * @return the new versions of songs whose genres or attributes changed
+   */
+  public List<SongInterface> getUpdated() {
+    List<SongInterface> songs = new ArrayList<>(updated.size());
+    for (SongInterface[] pair : updated)
+      songs.add(pair[1]);
+    return songs;
+  }
+
+  /**
+   * @return true if there are no changes
+   */
+  public boolean isEmpty() {
+    return inserted.isEmpty() && deleted.isEmpty() && updated.isEmpty();
+  }
+
+  public String toString() {
+    return inserted.size() + " inserted, " + updated.size() + " updated, " + deleted.size()
+        + " deleted";
+  }
+}
@@ -0,0 +1,143 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A secondary index that keeps songs sorted by a single attribute in its own red-black tree, so
+ * that songs within a range of that attribute can be found without scanning every song.
+ */
+public class SongIndex {
+  /**
+   * A song stored under its value for the indexed attribute. Songs with equal values are ordered
+   * by their natural (liveness, title) order.
+   */
+  protected static class Entry implements Comparable<Entry> {
+    public final int key;
+    public final SongInterface song;
+
+    public Entry(int key, SongInterface song) {
+      this.key = key;
+      this.song = song;
+    }
+
+    public int compareTo(Entry other) {
+      int compare = Integer.compare(key, other.key);
+      return compare != 0 ? compare : song.compareTo(other.song);
+    }
+
+    // entries for different songs can compare equal, so remove() needs to tell them apart
+    public boolean equals(Object other) {
+      return other instanceof Entry entry && key == entry.key && song.equals(entry.song);
+    }
+
+    public int hashCode() {
+      return 31 * key + song.hashCode();
+    }
+  }
+
+  private final SongAttribute attribute;
+  private final IterableRedBlackTree<Entry> tree = new IterableRedBlackTree<>();
+
+  /**
+   * @param attribute the attribute that songs are sorted by
+   */
+  public SongIndex(SongAttribute attribute) {
+    this.attribute = attribute;
+  }
+
+  public SongAttribute getAttribute() {
+    return attribute;
+  }
+
+  public int size() {
+    return tree.size();
+  }
+
+  public void insert(SongInterface song) {
+    tree.insert(new Entry(attribute.of(song), song));
+  }
+
+  /**
+   * @param song the song to remove, which must still have the attribute value it was inserted with
+   * @return true if the song was in the index
+   */
+  public boolean remove(SongInterface song) {
+    return tree.remove(new Entry(attribute.of(song), song));
+  }
+
+  public void bulkLoad(Collection<? extends SongInterface> songs) {
+    List<Entry> entries = new ArrayList<>(songs.size());
+    for (SongInterface song : songs)
+      entries.add(new Entry(attribute.of(song), song));
+    tree.bulkLoad(entries);
+  }
+
+  public void clear() {
+    tree.clear();
+  }
+
+  /**
+   * Writes this index's tree to a snapshot, storing each song as its number in numbers instead of
+   * writing the song again
+   * @param out where to write the snapshot
+   * @param numbers the position of every indexed song in the snapshot of the main tree
+   * @throws IOException if writing to out fails
+   */
+  public void writeSnapshot(DataOutput out, Map<SongInterface, Integer> numbers)
+      throws IOException {
+    tree.writeSnapshot(out, (output, value) -> {
+      output.writeInt(value.key);
+      output.writeInt(numbers.get(value.song));
+    });
+  }
+
+  /**
+   * Replaces this index with one written by writeSnapshot()
+   * @param in where to read the snapshot from
+   * @param songs the songs of the main tree, by number
+   * @throws IOException if reading fails or the snapshot is malformed
+   */
+  public void readSnapshot(DataInput in, List<SongInterface> songs) throws IOException {
+    tree.readSnapshot(in, input -> {
+      int key = input.readInt();
+      int number = input.readInt();
+      if (number < 0 || number >= songs.size())
+        throw new IOException("Malformed index snapshot: no song number " + number);
+      return new Entry(key, songs.get(number));
+    });
+  }
+
+  /**
+   * @param min the smallest value to count
+   * @param max the largest value to count
+   * @return the number of songs with min <= value <= max, counted in O(log n)
+   */
+  public int count(int min, int max) {
+    return tree.countInRange(other -> Integer.compare(min, other.key),
+        other -> Integer.compare(max, other.key), true);
+  }
+
+  /**
+   * @param min the smallest value to return
+   * @param max the largest value to return
+   * @return the songs with min <= value <= max, in ascending order of value
+   */
+  public Iterator<SongInterface> range(int min, int max) {
+    Iterator<Entry> entries = tree.rangeIterator(other -> Integer.compare(min, other.key),
+        other -> Integer.compare(max, other.key), true);
+    return new Iterator<SongInterface>() {
+      public boolean hasNext() {
+        return entries.hasNext();
+      }
+
+      public SongInterface next() {
+        return entries.next().song;
+      }
+    };
+  }
+}
@@ -17,5 +17,15 @@ public interface SongInterface extends Comparable<SongInterface> {
     int getLoudness(); // returns this song's loudness in dB
     
     int getLiveness(); // returns this song's liveness rating
+
+    int getValence(); // returns this song's valence (positivity) rating
+
+    int getDuration(); // returns this song's length in seconds
+
+    int getAcousticness(); // returns this song's acousticness rating
+
+    int getSpeechiness(); // returns this song's speechiness rating
+
+    int getPopularity(); // returns this song's popularity rating
     
 }
@@ -0,0 +1,138 @@
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * One page of the titles matching a query, along with the token to pass back to get the next
+ * page.
+ *
+ * Page tokens are cursors, not offsets: a token holds the (liveness, title) key of the last song
+ * on its page, plus how many songs with exactly that key were returned so far. The next page
+ * seeks straight to that key in the tree, so reading any page costs O(log n) plus its own size,
+ * and songs inserted or removed elsewhere in the tree do not shift pages that come later.
+ */
+public class SongPage {
+  private final List<String> titles;
+  private final String nextPageToken;
+
+  private SongPage(List<String> titles, String nextPageToken) {
+    this.titles = Collections.unmodifiableList(titles);
+    this.nextPageToken = nextPageToken;
+  }
+
+  /**
+   * Reads a page of the songs matching query
+   * @param store the songs to read from
+   * @param query the conditions that a song has to meet
+   * @param pageToken the token of the previous page, or null for the first page
+   * @param pageSize the maximum number of titles on the page
+   * @return the page
+   * @throws IllegalArgumentException when pageSize is not positive or pageToken is malformed
+   */
+  public static SongPage read(IndexedSongStore store, SongQuery query, String pageToken,
+      int pageSize) {
+    if (pageSize <= 0)
+      throw new IllegalArgumentException("pageSize must be positive");
+
+    Iterator<SongInterface> songs;
+    int liveness = 0;
+    String title = null;
+    int ties = 0;
+    // a song read while skipping that still belongs on the page
+    SongInterface pending = null;
+    if (pageToken == null) {
+      songs = store.iterator(query, null);
+    } else {
+      String[] fields = decode(pageToken);
+      try {
+        liveness = Integer.parseInt(fields[0]);
+        ties = Integer.parseInt(fields[1]);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid page token", e);
+      }
+      title = fields[2];
+      int fromLiveness = liveness;
+      String fromTitle = title;
+      songs = store.iterator(query, other -> compare(fromLiveness, fromTitle, other));
+      // songs with the token's key that were already returned. Some of them may have been
+      // removed since, so this stops at the first song with another key and keeps it for the page
+      int skipped = 0;
+      while (skipped < ties && songs.hasNext()) {
+        SongInterface song = songs.next();
+        if (compare(liveness, title, song) != 0) {
+          pending = song;
+          break;
+        }
+        skipped++;
+      }
+      ties = skipped;
+    }
+
+    List<String> titles = new ArrayList<>(pageSize);
+    SongInterface last = null;
+    for (int i = 0; i < pageSize && (pending != null || songs.hasNext()); i++) {
+      SongInterface song = pending != null ? pending : songs.next();
+      pending = null;
+      if (last != null && compare(last.getLiveness(), last.getTitle(), song) == 0) {
+        ties++;
+      } else if (title != null && compare(liveness, title, song) == 0) {
+        // still on the key the page started at
+        ties++;
+      } else {
+        ties = 1;
+        title = null;
+      }
+      titles.add(song.getTitle());
+      last = song;
+    }
+    if (last == null || !songs.hasNext())
+      return new SongPage(titles, null);
+    return new SongPage(titles, encode(last.getLiveness(), ties, last.getTitle()));
+  }
+
+  // orders keys like Song.compareTo(): by liveness, then by title
+  private static int compare(int liveness, String title, SongInterface song) {
+    int compare = Integer.compare(liveness, song.getLiveness());
+    return compare != 0 ? compare : title.compareTo(song.getTitle());
+  }
+
+  private static String encode(int liveness, int ties, String title) {
+    String token = liveness + ":" + ties + ":" + title;
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(
+        token.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static String[] decode(String token) {
+    String[] fields;
+    try {
+      fields = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8)
+          .split(":", 3);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid page token", e);
+    }
+    if (fields.length != 3)
+      throw new IllegalArgumentException("Invalid page token");
+    return fields;
+  }
+
+  /**
+   * @return the titles on this page, in ascending order by liveness
+   */
+  public List<String> getTitles() {
+    return titles;
+  }
+
+  /**
+   * @return the token to read the next page with, or null if this is the last page
+   */
+  public String getNextPageToken() {
+    return nextPageToken;
+  }
+
+  public boolean hasNextPage() {
+    return nextPageToken != null;
+  }
+}
@@ -0,0 +1,165 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * An immutable description of which songs to find, built up one condition at a time:
+ *
+ * <pre>
+ * SongQuery.where(SongQuery.between(SongAttribute.LIVENESS, 10, 40))
+ *     .and(SongQuery.atLeast(SongAttribute.YEAR, 2015))
+ *     .and(SongQuery.genreContains("pop"));
+ * </pre>
+ *
+ * Conditions on numeric attributes are kept as ranges (two ranges on the same attribute are
+ * merged into one), so the backend can turn the most selective of them into seek bounds on an
+ * index. Any other condition is a plain predicate that is only checked on songs that are
+ * already within every range.
+ */
+public class SongQuery {
+  private static final SongQuery ALL = new SongQuery(Collections.emptyList(),
+      Collections.emptyList());
+
+  private final List<AttributeRange> ranges;
+  private final List<Predicate<SongInterface>> filters;
+
+  private SongQuery(List<AttributeRange> ranges, List<Predicate<SongInterface>> filters) {
+    this.ranges = ranges;
+    this.filters = filters;
+  }
+
+  /**
+   * @return a query that matches every song
+   */
+  public static SongQuery all() {
+    return ALL;
+  }
+
+  public static SongQuery where(AttributeRange range) {
+    return ALL.and(range);
+  }
+
+  public static SongQuery where(Predicate<SongInterface> filter) {
+    return ALL.and(filter);
+  }
+
+  /**
+   * @return a range that accepts songs with min <= attribute <= max
+   */
+  public static AttributeRange between(SongAttribute attribute, int min, int max) {
+    return new AttributeRange(attribute, min, max);
+  }
+
+  public static AttributeRange atLeast(SongAttribute attribute, int min) {
+    return new AttributeRange(attribute, min, Integer.MAX_VALUE);
+  }
+
+  public static AttributeRange atMost(SongAttribute attribute, int max) {
+    return new AttributeRange(attribute, Integer.MIN_VALUE, max);
+  }
+
+  public static AttributeRange equalTo(SongAttribute attribute, int value) {
+    return new AttributeRange(attribute, value, value);
+  }
+
+  /**
+   * @param text the text to look for (case sensitive; songs.csv genres are lower case)
+   * @return a condition that accepts songs whose genres contain text
+   */
+  public static Predicate<SongInterface> genreContains(String text) {
+    return song -> song.getGenres().contains(text);
+  }
+
+  /**
+   * @param artist the artist's name, exactly as in songs.csv
+   * @return a condition that accepts songs by that artist
+   */
+  public static Predicate<SongInterface> artistIs(String artist) {
+    return song -> song.getArtist().equals(artist);
+  }
+
+  /**
+   * @param range a range the songs must also be within
+   * @return a new query with this query's conditions and range. If this query already has a
+   *     range on the same attribute, the new query has the overlap of the two
+   */
+  public SongQuery and(AttributeRange range) {
+    if (range == null)
+      throw new NullPointerException("range cannot be null");
+    List<AttributeRange> combined = new ArrayList<>(ranges.size() + 1);
+    AttributeRange merged = range;
+    for (AttributeRange each : ranges) {
+      if (each.getAttribute() == range.getAttribute()) {
+        merged = new AttributeRange(range.getAttribute(), Math.max(each.getMin(), merged.getMin()),
+            Math.min(each.getMax(), merged.getMax()));
+      } else {
+        combined.add(each);
+      }
+    }
+    combined.add(merged);
+    return new SongQuery(Collections.unmodifiableList(combined), filters);
+  }
+
+  /**
+   * @param filter a condition the songs must also meet
+   * @return a new query with this query's conditions and filter
+   */
+  public SongQuery and(Predicate<SongInterface> filter) {
+    if (filter == null)
+      throw new NullPointerException("filter cannot be null");
+    List<Predicate<SongInterface>> combined = new ArrayList<>(filters);
+    combined.add(filter);
+    return new SongQuery(ranges, Collections.unmodifiableList(combined));
+  }
+
+  /**
+   * @return the attribute ranges of this query, at most one per attribute
+   */
+  public List<AttributeRange> getRanges() {
+    return ranges;
+  }
+
+  /**
+   * @return the conditions of this query that are not attribute ranges
+   */
+  public List<Predicate<SongInterface>> getFilters() {
+    return filters;
+  }
+
+  /**
+   * @return true if some range of this query cannot match any song
+   */
+  public boolean isEmpty() {
+    for (AttributeRange range : ranges)
+      if (range.isEmpty())
+        return true;
+    return false;
+  }
+
+  /**
+   * @param song the song to test
+   * @return true if the song meets every condition of this query
+   */
+  public boolean matches(SongInterface song) {
+    for (AttributeRange range : ranges)
+      if (!range.matches(song))
+        return false;
+    return matchesFilters(song);
+  }
+
+  /**
+   * @param song the song to test
+   * @return true if the song meets every condition that is not an attribute range
+   */
+  public boolean matchesFilters(SongInterface song) {
+    for (Predicate<SongInterface> filter : filters)
+      if (!filter.test(song))
+        return false;
+    return true;
+  }
+
+  public String toString() {
+    return "SongQuery" + ranges + (filters.isEmpty() ? "" : " + " + filters.size() + " filters");
+  }
+}
@@ -0,0 +1,176 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Runs SongQuery filters as full scans over the int[] columns of a SongTable instead of calling
+ * SongInterface getters on each song object.
+ *
+ * Every attribute range is evaluated by a kernel that walks one column and produces a selection
+ * bitmap (bit i of word i / 64 is set when row i matches). The kernels are branch-free, straight
+ * loops over primitive arrays, which the JIT can unroll and vectorize. Bitmaps for several ranges
+ * are ANDed together a word at a time, and the query's other predicates are then only checked on
+ * the rows that are still selected.
+ */
+public class SongScanEngine {
+  private final SongTable table;
+
+  /**
+   * @param table the songs to scan. Rows added to the table later are included in later scans
+   */
+  public SongScanEngine(SongTable table) {
+    this.table = table;
+  }
+
+  /**
+   * @return a bitmap large enough for size rows, with nothing selected
+   */
+  public static long[] emptyBitmap(int size) {
+    return new long[(size + 63) >>> 6];
+  }
+
+  /**
+   * Selects the rows whose value is within [min, max]
+   * @param column the values, indexed by row
+   * @param size the number of rows to scan
+   * @return a bitmap with a bit set for each matching row
+   */
+  public static long[] between(int[] column, int size, int min, int max) {
+    long[] bitmap = emptyBitmap(size);
+    for (int word = 0; word < bitmap.length; word++) {
+      int base = word << 6;
+      int end = Math.min(64, size - base);
+      long bits = 0;
+      for (int bit = 0; bit < end; bit++) {
+        int value = column[base + bit];
+        // both differences are non-negative exactly when the value is in range, so the sign bit
+        // of their OR is 0 for a match; computed in long so open bounds cannot overflow
+        long outside = (((long) value - min) | ((long) max - value)) >>> 63;
+        bits |= (outside ^ 1) << bit;
+      }
+      bitmap[word] = bits;
+    }
+    return bitmap;
+  }
+
+  /**
+   * Clears the bits of rows in target whose value is not within [min, max]. Words of target that
+   * are already empty are skipped without reading the column.
+   * @param target the bitmap to narrow down
+   * @param column the values, indexed by row
+   * @param size the number of rows covered by target
+   */
+  public static void andBetween(long[] target, int[] column, int size, int min, int max) {
+    for (int word = 0; word < target.length; word++) {
+      if (target[word] == 0)
+        continue;
+      int base = word << 6;
+      int end = Math.min(64, size - base);
+      long bits = 0;
+      for (int bit = 0; bit < end; bit++) {
+        int value = column[base + bit];
+        long outside = (((long) value - min) | ((long) max - value)) >>> 63;
+        bits |= (outside ^ 1) << bit;
+      }
+      target[word] &= bits;
+    }
+  }
+
+  /**
+   * Keeps only the rows selected in both bitmaps, storing the result in target
+   */
+  public static void and(long[] target, long[] other) {
+    for (int word = 0; word < target.length; word++)
+      target[word] &= other[word];
+  }
+
+  /**
+   * @return the number of rows selected in bitmap
+   */
+  public static int count(long[] bitmap) {
+    int count = 0;
+    for (long word : bitmap)
+      count += Long.bitCount(word);
+    return count;
+  }
+
+  /**
+   * @return the numbers of the rows selected in bitmap, in ascending order
+   */
+  public static int[] rows(long[] bitmap) {
+    int[] rows = new int[count(bitmap)];
+    int next = 0;
+    for (int word = 0; word < bitmap.length; word++) {
+      long bits = bitmap[word];
+      while (bits != 0) {
+        rows[next++] = (word << 6) + Long.numberOfTrailingZeros(bits);
+        bits &= bits - 1;
+      }
+    }
+    return rows;
+  }
+
+  /**
+   * Evaluates a query over every row of the table
+   * @param query the conditions that a row has to meet
+   * @return a bitmap with a bit set for each matching row
+   */
+  public long[] filter(SongQuery query) {
+    int size = table.size();
+    long[] bitmap = null;
+    for (AttributeRange range : query.getRanges()) {
+      int[] column = table.column(range.getAttribute());
+      if (bitmap == null)
+        bitmap = between(column, size, range.getMin(), range.getMax());
+      else
+        andBetween(bitmap, column, size, range.getMin(), range.getMax());
+    }
+    if (bitmap == null) {
+      // no ranges: start from every row
+      bitmap = emptyBitmap(size);
+      for (int row = 0; row < size; row++)
+        bitmap[row >>> 6] |= 1L << row;
+    }
+
+    if (!query.getFilters().isEmpty()) {
+      SongTable.Cursor cursor = table.cursor();
+      for (int word = 0; word < bitmap.length; word++) {
+        long bits = bitmap[word];
+        while (bits != 0) {
+          long lowest = bits & -bits;
+          bits ^= lowest;
+          cursor.moveTo((word << 6) + Long.numberOfTrailingZeros(lowest));
+          for (Predicate<SongInterface> filter : query.getFilters()) {
+            if (!filter.test(cursor)) {
+              bitmap[word] ^= lowest;
+              break;
+            }
+          }
+        }
+      }
+    }
+    return bitmap;
+  }
+
+  /**
+   * @param query the conditions that a row has to meet
+   * @return the number of matching rows
+   */
+  public int count(SongQuery query) {
+    return count(filter(query));
+  }
+
+  /**
+   * @param query the conditions that a row has to meet
+   * @return views of the matching rows in their natural (liveness) order
+   */
+  public List<SongInterface> select(SongQuery query) {
+    int[] rows = rows(filter(query));
+    List<SongInterface> output = new ArrayList<>(rows.length);
+    for (int row : rows)
+      output.add(table.get(row));
+    Collections.sort(output);
+    return output;
+  }
+}
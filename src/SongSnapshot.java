@@ -0,0 +1,171 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Saves a loaded IndexedSongStore (the balanced tree and its secondary indexes) to a file, and
+ * restores it on a later start in linear time, without parsing the csv file or doing any rotations.
+ *
+ * Each snapshot records the size, modification time and CRC32 checksum of the csv file it was
+ * built from. A snapshot is only restored while the csv file still has the same size and either
+ * the same modification time or, when the time has changed (e.g. the file was copied), the same
+ * checksum. Otherwise it is stale and the caller should load the csv file again.
+ *
+ * File layout (big-endian):
+ * <pre>
+ * header   "SONGSNAP", int version, long csv size, long csv modification time, long csv CRC32
+ * store    the IndexedSongStore snapshot, with songs written by SongCodec
+ * </pre>
+ */
+public class SongSnapshot {
+  private static final byte[] MAGIC = "SONGSNAP".getBytes(StandardCharsets.US_ASCII);
+  private static final int VERSION = 1;
+
+  private SongSnapshot() {
+  }
+
+  /**
+   * Writes songs as their title, artist and genres followed by their numeric attributes. Each
+   * distinct string is written once; after that it is written as its number in the stream.
+   */
+  static class SongCodec implements IterableRedBlackTree.ValueWriter<SongInterface>,
+      IterableRedBlackTree.ValueReader<SongInterface> {
+    private static final SongAttribute[] ATTRIBUTES = SongAttribute.values();
+
+    private final Map<String, Integer> written = new HashMap<>();
+    private final List<String> read = new ArrayList<>();
+
+    public void write(DataOutput out, SongInterface song) throws IOException {
+      writeString(out, song.getTitle());
+      writeString(out, song.getArtist());
+      writeString(out, song.getGenres());
+      for (SongAttribute attribute : ATTRIBUTES)
+        out.writeInt(attribute.of(song));
+    }
+
+    public SongInterface read(DataInput in) throws IOException {
+      String title = readString(in);
+      String artist = readString(in);
+      String genres = readString(in);
+      int[] values = new int[ATTRIBUTES.length];
+      for (int i = 0; i < values.length; i++)
+        values[i] = in.readInt();
+      return new Song(title, artist, genres, values[0], values[1], values[2], values[3],
+          values[4], values[5], values[6], values[7], values[8], values[9], values[10]);
+    }
+
+    // -1 introduces a new string, anything else refers to one that was already written
+    private void writeString(DataOutput out, String value) throws IOException {
+      Integer number = written.get(value);
+      if (number != null) {
+        out.writeInt(number);
+        return;
+      }
+      out.writeInt(-1);
+      out.writeUTF(value);
+      written.put(value, written.size());
+    }
+
+    private String readString(DataInput in) throws IOException {
+      int number = in.readInt();
+      if (number == -1) {
+        String value = in.readUTF();
+        read.add(value);
+        return value;
+      }
+      if (number < 0 || number >= read.size())
+        throw new IOException("Malformed song snapshot: no string number " + number);
+      return read.get(number);
+    }
+  }
+
+  /**
+   * Writes store to snapshotFile. The file is written next to its final name and then moved into
+   * place, so a crash while saving never leaves a partial snapshot behind.
+   * @param store the songs to save; its tree has to be an IterableRedBlackTree
+   * @param csvFile the csv file the songs were loaded from
+   * @param snapshotFile the snapshot file to create or replace
+   * @throws IOException when a file cannot be read or written
+   */
+  public static void save(IndexedSongStore store, String csvFile, String snapshotFile)
+      throws IOException {
+    File source = new File(csvFile);
+    File target = new File(snapshotFile);
+    File temporary = new File(target.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(temporary), 1 << 16))) {
+      out.write(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(source.length());
+      out.writeLong(source.lastModified());
+      out.writeLong(checksum(source));
+      store.writeSnapshot(out, new SongCodec());
+    } catch (IOException | RuntimeException e) {
+      temporary.delete();
+      throw e;
+    }
+    Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * Replaces the contents of store with snapshotFile, if it is an up to date snapshot of csvFile
+   * @param store the store to restore into; its tree has to be an IterableRedBlackTree
+   * @param csvFile the csv file the snapshot should have been built from
+   * @param snapshotFile the snapshot written by save()
+   * @return true if the snapshot was restored, false if it is missing, stale, or was written by
+   *     an incompatible version, in which case store is left unchanged
+   * @throws IOException when a file cannot be read, or the snapshot is corrupt, in which case
+   *     store is left empty
+   */
+  public static boolean restore(IndexedSongStore store, String csvFile, String snapshotFile)
+      throws IOException {
+    File source = new File(csvFile);
+    File snapshot = new File(snapshotFile);
+    if (!snapshot.isFile() || !source.isFile())
+      return false;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+        new FileInputStream(snapshot), 1 << 16))) {
+      byte[] magic = in.readNBytes(MAGIC.length);
+      if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION)
+        return false;
+      long size = in.readLong();
+      long modified = in.readLong();
+      long crc = in.readLong();
+      if (size != source.length())
+        return false;
+      // only read the whole csv file when the cheap check is not enough
+      if (modified != source.lastModified() && crc != checksum(source))
+        return false;
+      store.readSnapshot(in, new SongCodec());
+      return true;
+    }
+  }
+
+  private static long checksum(File file) throws IOException {
+    CRC32 crc = new CRC32();
+    byte[] buffer = new byte[1 << 16];
+    try (InputStream in = new FileInputStream(file)) {
+      for (int read = in.read(buffer); read != -1; read = in.read(buffer))
+        crc.update(buffer, 0, read);
+    }
+    return crc.getValue();
+  }
+}
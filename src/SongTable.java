@@ -0,0 +1,277 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column-oriented, in-memory song catalog. Every numeric attribute is stored in its own int[]
+ * (indexed by row), artists and genres are dictionary encoded as int codes, and only the titles
+ * are kept as Strings. A row costs about 60 bytes plus its title, instead of a Song object per
+ * row, and a scan over one attribute reads a single contiguous array.
+ *
+ * Rows are exposed as SongInterface through get(), which returns a tiny view holding just the
+ * table and a row number, or through a Cursor that can be moved from row to row without
+ * allocating at all.
+ */
+public class SongTable {
+  private static final SongAttribute[] ATTRIBUTES = SongAttribute.values();
+  private static final int INITIAL_CAPACITY = 1024;
+
+  private int size = 0;
+  private String[] titles = new String[INITIAL_CAPACITY];
+  private int[] artists = new int[INITIAL_CAPACITY];
+  private int[] genres = new int[INITIAL_CAPACITY];
+  // one column per SongAttribute, indexed by its ordinal
+  private final int[][] columns = new int[ATTRIBUTES.length][INITIAL_CAPACITY];
+
+  private final Dictionary artistDictionary = new Dictionary();
+  private final Dictionary genreDictionary = new Dictionary();
+
+  /**
+   * Maps each distinct string to a small int code and back
+   */
+  private static class Dictionary {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    int encode(String value) {
+      Integer code = codes.get(value);
+      if (code == null) {
+        code = values.size();
+        codes.put(value, code);
+        values.add(value);
+      }
+      return code;
+    }
+
+    String decode(int code) {
+      return values.get(code);
+    }
+
+    int size() {
+      return values.size();
+    }
+  }
+
+  /**
+   * Loads every song in a .csv file into a new table without creating a Song per row
+   * @param filename is the name of the csv file to load data from
+   * @param charset is the encoding of the file
+   * @return the new table
+   * @throws IOException when there is trouble finding/reading file
+   */
+  public static SongTable load(String filename, Charset charset) throws IOException {
+    SongTable table = new SongTable();
+    try (SongCsvReader reader = new SongCsvReader(new InputStreamReader(
+        new FileInputStream(filename), charset))) {
+      reader.skipRecord();
+      while (reader.nextInto(table)) {
+        // each call appends one row
+      }
+    }
+    return table;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Appends a song to the end of the table
+   * @param song the song to copy
+   * @return the row number of the new row
+   */
+  public int add(SongInterface song) {
+    int row = appendRow(song.getTitle(), song.getArtist(), song.getGenres());
+    for (SongAttribute attribute : ATTRIBUTES)
+      columns[attribute.ordinal()][row] = attribute.of(song);
+    return row;
+  }
+
+  /**
+   * Appends a row from already parsed fields
+   * @param values the numeric attributes, in SongAttribute order (the songs.csv column order)
+   * @return the row number of the new row
+   */
+  public int add(String title, String artist, String genres, int[] values) {
+    if (values.length != ATTRIBUTES.length)
+      throw new IllegalArgumentException("Expected " + ATTRIBUTES.length + " values");
+    int row = appendRow(title, artist, genres);
+    for (int i = 0; i < values.length; i++)
+      columns[i][row] = values[i];
+    return row;
+  }
+
+  private int appendRow(String title, String artist, String genre) {
+    if (size == titles.length) {
+      int capacity = size * 2;
+      titles = Arrays.copyOf(titles, capacity);
+      artists = Arrays.copyOf(artists, capacity);
+      genres = Arrays.copyOf(genres, capacity);
+      for (int i = 0; i < columns.length; i++)
+        columns[i] = Arrays.copyOf(columns[i], capacity);
+    }
+    titles[size] = title;
+    artists[size] = artistDictionary.encode(artist);
+    genres[size] = genreDictionary.encode(genre);
+    return size++;
+  }
+
+  /**
+   * Returns the backing array of a column. Only the first size() entries are rows; the array is
+   * replaced when the table grows, so it should not be held on to across calls to add().
+   * @param attribute the column to return
+   * @return the values of attribute, indexed by row
+   */
+  public int[] column(SongAttribute attribute) {
+    return columns[attribute.ordinal()];
+  }
+
+  public int get(SongAttribute attribute, int row) {
+    checkRow(row);
+    return columns[attribute.ordinal()][row];
+  }
+
+  public String getTitle(int row) {
+    checkRow(row);
+    return titles[row];
+  }
+
+  public String getArtist(int row) {
+    checkRow(row);
+    return artistDictionary.decode(artists[row]);
+  }
+
+  public String getGenres(int row) {
+    checkRow(row);
+    return genreDictionary.decode(genres[row]);
+  }
+
+  /**
+   * @return the number of distinct artists in the table
+   */
+  public int artistCount() {
+    return artistDictionary.size();
+  }
+
+  /**
+   * @return the number of distinct genre strings in the table
+   */
+  public int genreCount() {
+    return genreDictionary.size();
+  }
+
+  private void checkRow(int row) {
+    if (row < 0 || row >= size)
+      throw new IndexOutOfBoundsException("Row " + row + " is not in a table of " + size);
+  }
+
+  /**
+   * @param row the row number
+   * @return a view of the row. The view stays valid as the table grows
+   */
+  public SongInterface get(int row) {
+    checkRow(row);
+    Cursor view = new Cursor();
+    view.row = row;
+    return view;
+  }
+
+  /**
+   * @return a new cursor positioned on row 0
+   */
+  public Cursor cursor() {
+    return new Cursor();
+  }
+
+  /**
+   * A SongInterface view of whichever row it is currently moved to
+   */
+  public class Cursor implements SongInterface {
+    private int row;
+
+    /**
+     * @param row the row that this cursor should show
+     * @return this cursor
+     */
+    public Cursor moveTo(int row) {
+      checkRow(row);
+      this.row = row;
+      return this;
+    }
+
+    public int getRow() {
+      return row;
+    }
+
+    public String getTitle() {
+      return titles[row];
+    }
+
+    public String getArtist() {
+      return artistDictionary.decode(artists[row]);
+    }
+
+    public String getGenres() {
+      return genreDictionary.decode(genres[row]);
+    }
+
+    public int getYear() {
+      return columns[SongAttribute.YEAR.ordinal()][row];
+    }
+
+    public int getBPM() {
+      return columns[SongAttribute.BPM.ordinal()][row];
+    }
+
+    public int getEnergy() {
+      return columns[SongAttribute.ENERGY.ordinal()][row];
+    }
+
+    public int getDanceability() {
+      return columns[SongAttribute.DANCEABILITY.ordinal()][row];
+    }
+
+    public int getLoudness() {
+      return columns[SongAttribute.LOUDNESS.ordinal()][row];
+    }
+
+    public int getLiveness() {
+      return columns[SongAttribute.LIVENESS.ordinal()][row];
+    }
+
+    public int getValence() {
+      return columns[SongAttribute.VALENCE.ordinal()][row];
+    }
+
+    public int getDuration() {
+      return columns[SongAttribute.DURATION.ordinal()][row];
+    }
+
+    public int getAcousticness() {
+      return columns[SongAttribute.ACOUSTICNESS.ordinal()][row];
+    }
+
+    public int getSpeechiness() {
+      return columns[SongAttribute.SPEECHINESS.ordinal()][row];
+    }
+
+    public int getPopularity() {
+      return columns[SongAttribute.POPULARITY.ordinal()][row];
+    }
+
+    // orders songs by liveness, breaking ties by title, like Song
+    public int compareTo(SongInterface b) {
+      int compare = Integer.compare(getLiveness(), b.getLiveness());
+      if (compare != 0) {
+        return compare;
+      }
+      return getTitle().compareTo(b.getTitle());
+    }
+  }
+}
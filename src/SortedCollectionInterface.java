@@ -4,6 +4,14 @@ public interface SortedCollectionInterface<T extends Comparable<T>> {
 
     public boolean contains(Comparable<T> data);
 
+    public boolean remove(T data) throws NullPointerException;
+
+    public T pollFirst();
+
+    public T pollLast();
+
+    public boolean replace(T oldData, T newData) throws NullPointerException;
+
     public int size();
 
     public boolean isEmpty();